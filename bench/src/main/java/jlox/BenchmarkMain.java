@@ -0,0 +1,20 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar. Same options as the stock JMH launcher, but always adds the gc
+ * profiler so allocation rates and bytes/op are reported with every run.
+ */
+public class BenchmarkMain {
+  public static void main(String[] args) throws Exception {
+    List<String> options = new ArrayList<>(Arrays.asList(args));
+    if (!options.contains("gc")) {
+      options.add(0, "-prof");
+      options.add(1, "gc");
+    }
+    org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+  }
+}
@@ -0,0 +1,63 @@
+package jlox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Scanning, parsing and resolving a mix of classes, functions and loops. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+  @Param({"100"})
+  public int declarations;
+
+  private String source;
+  private List<Stmt> statements;
+  private final Diagnostics diagnostics = Diagnostics.buffered();
+
+  @Setup
+  public void setUp() {
+    source = LoxPrograms.declarations(declarations);
+    statements = new Parser(TokenBuffer.scan(source, diagnostics).stream(), diagnostics).parse();
+  }
+
+  @Benchmark
+  public Object scanTokenList() {
+    return new Scanner(source, diagnostics).scanTokens();
+  }
+
+  @Benchmark
+  public Object scanTokenBuffer() {
+    return TokenBuffer.scan(source, diagnostics);
+  }
+
+  @Benchmark
+  public Object parseStreaming() {
+    return new Parser(new ScannerTokenStream(new Scanner(source, diagnostics)), diagnostics).parse();
+  }
+
+  @Benchmark
+  public Object parseBuffered() {
+    return new Parser(TokenBuffer.scan(source, diagnostics).stream(), diagnostics).parse();
+  }
+
+  @Benchmark
+  public Object resolve() {
+    new Resolver(diagnostics).resolve(statements);
+    return statements;
+  }
+}
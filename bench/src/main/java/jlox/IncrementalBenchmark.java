@@ -0,0 +1,150 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Re-checking a file after a one-character edit in its middle, incrementally and from scratch.
+ * The incremental score should stay flat as the file grows while the full one grows with it.
+ *
+ * <p>Setup first replays a series of edits, including ones that add, break and remove
+ * declarations, and fails unless the incremental front end ends up with the same statements and
+ * diagnostics as a full re-parse after each of them. After an edit that leaves brackets
+ * unbalanced it is compared with a new incremental front end instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncrementalBenchmark {
+  @Param({"100", "1000"})
+  public int declarations;
+
+  private String source;
+  private IncrementalFrontEnd frontEnd;
+  // A digit in the middle declaration, flipped back and forth by each edit.
+  private int offset;
+  private boolean flipped = false;
+
+  @Setup
+  public void setUp() {
+    source = LoxPrograms.declarations(declarations);
+    verify(source);
+
+    frontEnd = new IncrementalFrontEnd();
+    frontEnd.update(source);
+    offset = source.indexOf("j > 10", source.length() / 2) + "j > 1".length();
+  }
+
+  @Benchmark
+  public Object editIncremental() {
+    flipped = !flipped;
+    frontEnd.edit(offset, 1, flipped ? "1" : "0");
+    return frontEnd.statements();
+  }
+
+  @Benchmark
+  public Object editFull() {
+    flipped = !flipped;
+    String edited =
+        source.substring(0, offset) + (flipped ? "1" : "0") + source.substring(offset + 1);
+    Diagnostics diagnostics = Diagnostics.buffered();
+    List<Stmt> statements =
+        new Parser(TokenBuffer.scan(edited, diagnostics).stream(), diagnostics).parse();
+    if (!diagnostics.hadError) {
+      new Resolver(diagnostics).resolve(statements);
+    }
+    return statements;
+  }
+
+  private static void verify(String source) {
+    IncrementalFrontEnd frontEnd = new IncrementalFrontEnd();
+    frontEnd.update(source);
+    check(frontEnd, source, true);
+
+    int middle = source.indexOf("class Shape", source.length() / 2);
+    String[] edits = {
+      // A new declaration in the middle, then a syntax error inside it.
+      insert(source, middle, "fun added() { return 1; }\n"),
+      insert(source, middle, "fun added() { return 1 +; }\n"),
+      // An 'else' glued to the declaration before, and a resolve error.
+      insert(source, middle, "else print 1;\n"),
+      insert(source, middle, "fun bad() { var a = a; }\n"),
+      // Half the file gone, then all of it back.
+      source.substring(middle),
+      source,
+      "",
+      source,
+    };
+    for (String edited : edits) {
+      frontEnd.update(edited);
+      check(frontEnd, edited, true);
+    }
+
+    // Cutting through a declaration leaves stray brackets. The parser then recovers at each
+    // declaration boundary instead of at the next statement keyword, so only compare with a
+    // front end that started from scratch.
+    frontEnd.update(source.substring(source.length() / 2));
+    check(frontEnd, source.substring(source.length() / 2), false);
+  }
+
+  private static String insert(String source, int offset, String text) {
+    return source.substring(0, offset) + text + source.substring(offset);
+  }
+
+  // Fails unless the incremental result matches checking the same text from scratch.
+  private static void check(IncrementalFrontEnd frontEnd, String source, boolean balanced) {
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    frontEnd.report(new Diagnostics(new PrintStream(actual, true, StandardCharsets.UTF_8)));
+    String result = shape(frontEnd.statements()) + actual.toString(StandardCharsets.UTF_8);
+
+    IncrementalFrontEnd fresh = new IncrementalFrontEnd();
+    fresh.update(source);
+    ByteArrayOutputStream rebuilt = new ByteArrayOutputStream();
+    fresh.report(new Diagnostics(new PrintStream(rebuilt, true, StandardCharsets.UTF_8)));
+    if (!result.equals(shape(fresh.statements()) + rebuilt.toString(StandardCharsets.UTF_8))) {
+      throw new IllegalStateException(
+          "Incremental front end differs from starting afresh on:\n" + source);
+    }
+    if (!balanced) {
+      return;
+    }
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    Diagnostics full = new Diagnostics(new PrintStream(expected, true, StandardCharsets.UTF_8));
+    List<Stmt> statements = new Parser(TokenBuffer.scan(source, full).stream(), full).parse();
+    if (!full.hadError) {
+      new Resolver(full).resolve(statements);
+    }
+    if (!result.equals(shape(statements) + expected.toString(StandardCharsets.UTF_8))) {
+      throw new IllegalStateException(
+          "Incremental front end differs from a full re-parse of:\n" + source);
+    }
+  }
+
+  // The kind of every top-level statement, which a misplaced boundary would change. The parser
+  // leaves a null where a declaration failed to parse.
+  private static String shape(List<Stmt> statements) {
+    StringBuilder shape = new StringBuilder();
+    for (Stmt statement : statements) {
+      shape.append(statement == null ? "error" : statement.getClass().getSimpleName()).append('\n');
+    }
+    return shape.toString();
+  }
+}
@@ -0,0 +1,53 @@
+package jlox;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Evaluating small, already resolved programs, one per kind of workload. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+  @Param({"fib", "loops", "closures", "classes"})
+  public String program;
+
+  private LoxPrograms.Compiled compiled;
+
+  @Setup
+  public void setUp() {
+    switch (program) {
+      case "fib":
+        compiled = LoxPrograms.compile(LoxPrograms.FIB);
+        break;
+      case "loops":
+        compiled = LoxPrograms.compile(LoxPrograms.LOOPS);
+        break;
+      case "closures":
+        compiled = LoxPrograms.compile(LoxPrograms.CLOSURES);
+        break;
+      case "classes":
+        compiled = LoxPrograms.compile(LoxPrograms.CLASSES);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown program " + program);
+    }
+  }
+
+  @Benchmark
+  public void evaluate() {
+    compiled.run();
+  }
+}
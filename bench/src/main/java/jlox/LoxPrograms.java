@@ -0,0 +1,153 @@
+package jlox;
+
+import java.util.List;
+
+/** Lox inputs shared by the benchmarks, and a helper to get them ready to run. */
+final class LoxPrograms {
+  private LoxPrograms() {}
+
+  /** A script that has been compiled as jlox compiles a file, with its own interpreter. */
+  static final class Compiled {
+    final Interpreter interpreter;
+    final List<Stmt> statements;
+    final Diagnostics diagnostics;
+
+    Compiled(Interpreter interpreter, List<Stmt> statements, Diagnostics diagnostics) {
+      this.interpreter = interpreter;
+      this.statements = statements;
+      this.diagnostics = diagnostics;
+    }
+
+    void run() {
+      interpreter.interpret(statements);
+    }
+  }
+
+  static Compiled compile(String source) {
+    Diagnostics diagnostics = Diagnostics.buffered();
+    Interpreter interpreter = new Interpreter(diagnostics);
+    List<Stmt> statements = new Parser(TokenBuffer.scan(source, diagnostics).stream(), diagnostics)
+        .parse();
+    if (!diagnostics.hadError) {
+      new Resolver(diagnostics).resolve(statements);
+    }
+    if (diagnostics.hadError) {
+      throw new IllegalArgumentException("Benchmark program does not compile:\n" + source);
+    }
+    new TypeInference().infer(statements);
+    new Inliner().inline(statements);
+
+    Compiled compiled = new Compiled(interpreter, statements, diagnostics);
+    compiled.run();
+    if (diagnostics.hadRuntimeError) {
+      throw new IllegalArgumentException("Benchmark program fails at runtime:\n" + source);
+    }
+    return compiled;
+  }
+
+  /** `count` copies of a declaration mix typical of our scripts, for the front-end benchmarks. */
+  static String declarations(int count) {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      source
+          .append("class Shape").append(i).append(" {\n")
+          .append("  init(w, h) { this.w = w; this.h = h; }\n")
+          .append("  area() { return this.w + this.h; }\n")
+          .append("}\n")
+          .append("fun walk").append(i).append("(n) {\n")
+          .append("  var total = 0;\n")
+          .append("  for (var j = 0; j < n; j = j + 1) {\n")
+          .append("    if (j > 10 and total < 100) { total = total + j; } else { total = total - 1; }\n")
+          .append("  }\n")
+          .append("  return total;\n")
+          .append("}\n")
+          .append("var label").append(i).append(" = \"shape \" + \"").append(i).append("\"; // done\n");
+    }
+    return source.toString();
+  }
+
+  static final String FIB =
+      "fun fib(n) {\n"
+          + "  if (n < 2) return n;\n"
+          + "  return fib(n - 2) + fib(n - 1);\n"
+          + "}\n"
+          + "fib(18);\n";
+
+  static final String LOOPS =
+      "fun loops() {\n"
+          + "  var total = 0;\n"
+          + "  for (var i = 0; i < 2000; i = i + 1) {\n"
+          + "    var j = 0;\n"
+          + "    while (j < 10) { total = total + j; j = j + 1; }\n"
+          + "  }\n"
+          + "  return total;\n"
+          + "}\n"
+          + "loops();\n";
+
+  static final String CLOSURES =
+      "fun makeCounter() {\n"
+          + "  var count = 0;\n"
+          + "  fun next() { count = count + 1; return count; }\n"
+          + "  return next;\n"
+          + "}\n"
+          + "fun closures() {\n"
+          + "  var total = 0;\n"
+          + "  for (var i = 0; i < 500; i = i + 1) {\n"
+          + "    var counter = makeCounter();\n"
+          + "    counter(); counter();\n"
+          + "    total = total + counter();\n"
+          + "  }\n"
+          + "  return total;\n"
+          + "}\n"
+          + "closures();\n";
+
+  static final String CLASSES =
+      "class Point {\n"
+          + "  init(x, y) { this.x = x; this.y = y; }\n"
+          + "  plus(other) { return Point(this.x + other.x, this.y + other.y); }\n"
+          + "}\n"
+          + "fun classes() {\n"
+          + "  var p = Point(0, 0);\n"
+          + "  var step = Point(1, 2);\n"
+          + "  for (var i = 0; i < 1000; i = i + 1) { p = p.plus(step); }\n"
+          + "  return p.x;\n"
+          + "}\n"
+          + "classes();\n";
+
+  static final String VARIABLE_LOOKUP =
+      "var global = 1;\n"
+          + "fun lookup() {\n"
+          + "  var a = 1;\n"
+          + "  {\n"
+          + "    var b = 2;\n"
+          + "    {\n"
+          + "      var c = 3;\n"
+          + "      var sum = 0;\n"
+          + "      for (var i = 0; i < 1000; i = i + 1) { sum = sum + a + b + c + global; }\n"
+          + "      return sum;\n"
+          + "    }\n"
+          + "  }\n"
+          + "}\n"
+          + "lookup();\n";
+
+  static final String METHOD_DISPATCH =
+      "class Base { value() { return 1; } }\n"
+          + "class Middle < Base {}\n"
+          + "class Leaf < Middle {}\n"
+          + "fun dispatch() {\n"
+          + "  var leaf = Leaf();\n"
+          + "  var sum = 0;\n"
+          + "  for (var i = 0; i < 1000; i = i + 1) { sum = sum + leaf.value(); }\n"
+          + "  return sum;\n"
+          + "}\n"
+          + "dispatch();\n";
+
+  static final String FIELD_ACCESS =
+      "class Cell { init() { this.x = 0; this.y = 0; } }\n"
+          + "fun fields() {\n"
+          + "  var cell = Cell();\n"
+          + "  for (var i = 0; i < 1000; i = i + 1) { cell.x = cell.x + 1; cell.y = cell.x; }\n"
+          + "  return cell.y;\n"
+          + "}\n"
+          + "fields();\n";
+}
@@ -0,0 +1,218 @@
+package jlox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs whole Lox programs the way jlox would (scan, parse, resolve, analyze and execute in a fresh
+ * interpreter) and reports wall time, throughput and allocated bytes per run as JSON.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar jlox.MacroBenchmark [--warmup N] [--runs N] [--label NAME]
+ *     [--out FILE] [script.lox | directory]...
+ * </pre>
+ *
+ * <p>Without scripts it runs every program in ./lox. Output printed by the programs is discarded
+ * while measuring. Runs with different labels, for example one per execution mode, can be
+ * compared side by side.
+ */
+public class MacroBenchmark {
+  private static class Result {
+    final String name;
+    final long[] nanos;
+    final long[] allocated;
+    final String error;
+
+    Result(String name, long[] nanos, long[] allocated, String error) {
+      this.name = name;
+      this.nanos = nanos;
+      this.allocated = allocated;
+      this.error = error;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int warmup = 3;
+    int runs = 10;
+    String label = "default";
+    String out = null;
+    List<Path> scripts = new ArrayList<>();
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--warmup":
+          warmup = Integer.parseInt(args[++i]);
+          break;
+        case "--runs":
+          runs = Integer.parseInt(args[++i]);
+          break;
+        case "--label":
+          label = args[++i];
+          break;
+        case "--out":
+          out = args[++i];
+          break;
+        default:
+          addScripts(Paths.get(args[i]), scripts);
+      }
+    }
+    if (scripts.isEmpty()) {
+      addScripts(Paths.get("lox"), scripts);
+    }
+
+    List<Result> results = new ArrayList<>();
+    for (Path script : scripts) {
+      results.add(measure(script, warmup, runs));
+    }
+
+    String json = toJson(label, warmup, runs, results);
+    if (out == null) {
+      System.out.println(json);
+    } else {
+      Files.write(Paths.get(out), json.getBytes(Charset.forName("UTF-8")));
+    }
+  }
+
+  private static void addScripts(Path path, List<Path> scripts) throws IOException {
+    if (Files.isDirectory(path)) {
+      try (Stream<Path> files = Files.list(path)) {
+        scripts.addAll(
+            files
+                .filter(file -> file.toString().endsWith(".lox"))
+                .sorted()
+                .collect(Collectors.toList()));
+      }
+    } else {
+      scripts.add(path);
+    }
+  }
+
+  private static Result measure(Path script, int warmup, int runs) throws IOException {
+    String name = script.getFileName().toString().replaceFirst("\\.lox$", "");
+    String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    long[] nanos = new long[runs];
+    long[] allocated = new long[runs];
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    try {
+      for (int i = 0; i < warmup; i++) {
+        String error = runOnce(source);
+        if (error != null) {
+          return new Result(name, new long[0], new long[0], error);
+        }
+      }
+
+      System.gc();
+      for (int i = 0; i < runs; i++) {
+        long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        String error = runOnce(source);
+        nanos[i] = System.nanoTime() - start;
+        allocated[i] = threads.getCurrentThreadAllocatedBytes() - bytesBefore;
+        if (error != null) {
+          return new Result(name, new long[0], new long[0], error);
+        }
+      }
+    } finally {
+      System.setOut(stdout);
+    }
+    return new Result(name, nanos, allocated, null);
+  }
+
+  // Returns null on success, or a description of what went wrong.
+  private static String runOnce(String source) {
+    Diagnostics diagnostics = Diagnostics.buffered();
+    Interpreter interpreter = new Interpreter(diagnostics);
+    List<Stmt> statements =
+        new Parser(TokenBuffer.scan(source, diagnostics).stream(), diagnostics).parse();
+    if (!diagnostics.hadError) {
+      new Resolver(diagnostics).resolve(statements);
+    }
+    if (diagnostics.hadError) {
+      return "compile error";
+    }
+    new TypeInference().infer(statements);
+    new Inliner().inline(statements);
+
+    interpreter.interpret(statements);
+    return diagnostics.hadRuntimeError ? "runtime error" : null;
+  }
+
+  private static String toJson(String label, int warmup, int runs, List<Result> results) {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n");
+    json.append("  \"label\": ").append(quote(label)).append(",\n");
+    json.append("  \"java\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+    json.append("  \"warmup\": ").append(warmup).append(",\n");
+    json.append("  \"runs\": ").append(runs).append(",\n");
+    json.append("  \"benchmarks\": [");
+
+    for (int i = 0; i < results.size(); i++) {
+      Result result = results.get(i);
+      json.append(i == 0 ? "\n" : ",\n");
+      json.append("    {\"name\": ").append(quote(result.name));
+      if (result.error != null) {
+        json.append(", \"error\": ").append(quote(result.error)).append("}");
+        continue;
+      }
+
+      double mean = mean(result.nanos);
+      double variance = 0;
+      long min = Long.MAX_VALUE;
+      long max = 0;
+      for (long sample : result.nanos) {
+        variance += (sample - mean) * (sample - mean);
+        min = Math.min(min, sample);
+        max = Math.max(max, sample);
+      }
+      double stddev = Math.sqrt(variance / result.nanos.length);
+
+      json.append(", \"wallMillis\": {")
+          .append("\"mean\": ").append(millis(mean))
+          .append(", \"min\": ").append(millis(min))
+          .append(", \"max\": ").append(millis(max))
+          .append(", \"stddev\": ").append(millis(stddev))
+          .append("}");
+      json.append(", \"runsPerSecond\": ").append(format(1e9 / mean));
+      json.append(", \"allocatedBytesPerRun\": ").append(Math.round(mean(result.allocated)));
+      json.append("}");
+    }
+
+    json.append("\n  ]\n}");
+    return json.toString();
+  }
+
+  private static double mean(long[] samples) {
+    double sum = 0;
+    for (long sample : samples) {
+      sum += sample;
+    }
+    return sum / samples.length;
+  }
+
+  private static String millis(double nanos) {
+    return format(nanos / 1e6);
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.ROOT, "%.3f", value);
+  }
+
+  private static String quote(String text) {
+    return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+}
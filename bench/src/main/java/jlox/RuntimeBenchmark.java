@@ -0,0 +1,54 @@
+package jlox;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Focused runtime paths. Each program runs a 1000-iteration loop around one operation, so scores
+ * divided by 1000 give a rough per-operation cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuntimeBenchmark {
+  private LoxPrograms.Compiled variableLookup;
+  private LoxPrograms.Compiled methodDispatch;
+  private LoxPrograms.Compiled fieldAccess;
+
+  @Setup
+  public void setUp() {
+    variableLookup = LoxPrograms.compile(LoxPrograms.VARIABLE_LOOKUP);
+    methodDispatch = LoxPrograms.compile(LoxPrograms.METHOD_DISPATCH);
+    fieldAccess = LoxPrograms.compile(LoxPrograms.FIELD_ACCESS);
+  }
+
+  /** Locals at increasing depth through nested blocks, plus one global. */
+  @Benchmark
+  public void variableLookup() {
+    variableLookup.run();
+  }
+
+  /** Calls to a method inherited two levels up. */
+  @Benchmark
+  public void methodDispatch() {
+    methodDispatch.run();
+  }
+
+  /** Reads and writes of instance fields. */
+  @Benchmark
+  public void fieldAccess() {
+    fieldAccess.run();
+  }
+}
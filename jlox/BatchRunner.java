@@ -0,0 +1,236 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@code jlox --batch}: runs many independent scripts on a fixed pool of worker threads. Every
+ * script gets its own interpreter and diagnostics. Its output and errors are captured and written
+ * next to it as {@code script.lox.out} and {@code script.lox.err}, and a summary of exit codes and
+ * timings is printed at the end.
+ *
+ * <p>With the front-end cache on, scripts with identical source are scanned, parsed and resolved
+ * once. A resolved AST is never modified while it runs, so interpreters can share it.
+ */
+class BatchRunner {
+  static class Job {
+    final String path;
+    int exitCode;
+    long nanos;
+
+    Job(String path) {
+      this.path = path;
+    }
+  }
+
+  // A resolved script, with its compile errors buffered for replay into each job that uses it.
+  private static class Compiled {
+    final List<Stmt> statements;
+    final Diagnostics diagnostics;
+
+    Compiled(List<Stmt> statements, Diagnostics diagnostics) {
+      this.statements = statements;
+      this.diagnostics = diagnostics;
+    }
+  }
+
+  private final int workers;
+  // Keyed by source text; null when caching is off.
+  private final ConcurrentHashMap<String, FutureTask<Compiled>> cache;
+
+  BatchRunner(int workers, boolean cacheFrontEnd) {
+    this.workers = workers;
+    this.cache = cacheFrontEnd ? new ConcurrentHashMap<>() : null;
+  }
+
+  /** Expands directories to the .lox files directly inside them, in name order. */
+  static List<String> expand(List<String> paths) throws IOException {
+    List<String> scripts = new ArrayList<>();
+    for (String path : paths) {
+      if (!Files.isDirectory(Paths.get(path))) {
+        scripts.add(path);
+        continue;
+      }
+      try (Stream<Path> files = Files.list(Paths.get(path))) {
+        scripts.addAll(
+            files
+                .map(Path::toString)
+                .filter(file -> file.endsWith(".lox"))
+                .sorted()
+                .collect(Collectors.toList()));
+      }
+    }
+    return scripts;
+  }
+
+  /** Runs every script and returns the jobs in the order given. */
+  List<Job> run(List<String> paths) throws InterruptedException {
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            workers, task -> new Thread(null, task, "jlox-batch", Lox.stackSize()));
+    try {
+      List<Future<Job>> futures = new ArrayList<>();
+      for (String path : paths) {
+        futures.add(pool.submit(() -> runJob(path)));
+      }
+      List<Job> jobs = new ArrayList<>();
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          jobs.add(futures.get(i).get());
+        } catch (ExecutionException e) {
+          // runJob catches everything itself, so this is a failure outside any one script.
+          Job job = new Job(paths.get(i));
+          job.exitCode = 70;
+          jobs.add(job);
+        }
+      }
+      return jobs;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // A failure in one script, even a bug in jlox, is recorded in its job and its .err file, and
+  // the other scripts keep running.
+  private Job runJob(String path) {
+    Job job = new Job(path);
+    long start = System.nanoTime();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    PrintStream errors = new PrintStream(err, true, Charset.defaultCharset());
+    try {
+      job.exitCode = execute(path, out, errors);
+    } catch (RuntimeException | Error e) {
+      errors.println("Internal error: " + e);
+      job.exitCode = 70;
+    }
+    job.nanos = System.nanoTime() - start;
+
+    try {
+      Files.write(Paths.get(path + ".out"), out.toByteArray());
+      Files.write(Paths.get(path + ".err"), err.toByteArray());
+    } catch (IOException e) {
+      System.err.println("Could not write the results of '" + path + "'.");
+      job.exitCode = 70;
+    }
+    return job;
+  }
+
+  // Returns the exit code jlox would have exited with.
+  private int execute(String path, ByteArrayOutputStream out, PrintStream errors) {
+    String source;
+    try {
+      source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+    } catch (IOException e) {
+      errors.println("Could not read '" + path + "'.");
+      return 64;
+    }
+
+    RuntimeMetrics.countScript();
+    Diagnostics diagnostics = new Diagnostics(errors);
+    List<Stmt> statements;
+    if (cache == null) {
+      statements = compile(source, diagnostics);
+    } else {
+      Compiled compiled = compileShared(source);
+      compiled.diagnostics.replayInto(diagnostics, "", 0);
+      statements = compiled.statements;
+    }
+    if (diagnostics.hadError) {
+      return 65;
+    }
+
+    Interpreter interpreter = new Interpreter(diagnostics, new BufferedOutput(out));
+    interpreter.quota = Quota.fromProperties();
+    interpreter.interpret(statements);
+    return diagnostics.hadRuntimeError ? 70 : 0;
+  }
+
+  // The first job to ask for a source compiles it; the others wait for that result.
+  private Compiled compileShared(String source) {
+    FutureTask<Compiled> task =
+        new FutureTask<>(
+            () -> {
+              Diagnostics diagnostics = Diagnostics.buffered();
+              return new Compiled(compile(source, diagnostics), diagnostics);
+            });
+    FutureTask<Compiled> existing = cache.putIfAbsent(source, task);
+    if (existing == null) {
+      task.run();
+      existing = task;
+    }
+    try {
+      return existing.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a shared compile.", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Shared compile failed.", e.getCause());
+    }
+  }
+
+  private static List<Stmt> compile(String source, Diagnostics diagnostics) {
+    List<Stmt> statements =
+        new Parser(TokenBuffer.scan(source, diagnostics).stream(), diagnostics).parse();
+    if (!diagnostics.hadError) {
+      new Resolver(diagnostics).resolve(statements);
+    }
+    if (!diagnostics.hadError) {
+      new TypeInference().infer(statements);
+      new Inliner().inline(statements);
+    }
+    return statements;
+  }
+
+  /** Prints one line per job and the totals. */
+  static void printSummary(PrintStream out, List<Job> jobs, long wallNanos) {
+    int[] counts = new int[4];
+    long totalNanos = 0;
+    out.printf(Locale.ROOT, "%4s %10s  %s%n", "exit", "ms", "script");
+    for (Job job : jobs) {
+      out.printf(Locale.ROOT, "%4d %10.1f  %s%n", job.exitCode, job.nanos / 1e6, job.path);
+      totalNanos += job.nanos;
+      switch (job.exitCode) {
+        case 0:
+          counts[0]++;
+          break;
+        case 65:
+          counts[1]++;
+          break;
+        case 70:
+          counts[2]++;
+          break;
+        default:
+          counts[3]++;
+          break;
+      }
+    }
+    out.printf(
+        Locale.ROOT,
+        "%n%d scripts: %d ok, %d compile errors, %d runtime errors, %d unreadable%n",
+        jobs.size(),
+        counts[0],
+        counts[1],
+        counts[2],
+        counts[3]);
+    out.printf(
+        Locale.ROOT, "%.1f ms wall, %.1f ms summed over scripts%n", wallNanos / 1e6,
+        totalNanos / 1e6);
+  }
+}
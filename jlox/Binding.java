@@ -0,0 +1,30 @@
+package jlox;
+
+/**
+ * Where the {@link Resolver} found a local variable. Globals have no binding and are looked up by
+ * name at runtime.
+ */
+class Binding {
+  enum Kind {
+    /** Slot `index` of the running function's environment. */
+    LOCAL,
+    /** Like LOCAL, but the slot holds a {@link Cell} because a closure captures the variable. */
+    CELL,
+    /** Entry `index` of the running closure's captured cells. */
+    UPVALUE,
+    /** Entry `index` of the arguments of a call whose body the {@link Inliner} copied in. */
+    ARGUMENT
+  }
+
+  // A LOCAL becomes a CELL when the Resolver later finds a closure that captures the variable.
+  Kind kind;
+  final int index;
+  // Whether this declares a name already declared in the same scope, which stores into the
+  // existing variable instead of creating one.
+  boolean redeclaration = false;
+
+  Binding(Kind kind, int index) {
+    this.kind = kind;
+    this.index = index;
+  }
+}
@@ -0,0 +1,48 @@
+package jlox;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * The default {@link OutputSink}: formats values the way print always has and hands the text to
+ * the stream in large chunks instead of one synchronized println per statement.
+ */
+class BufferedOutput implements OutputSink {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final Writer writer;
+  private final String lineSeparator = System.lineSeparator();
+  private final char[] digits = new char[8];
+
+  BufferedOutput(OutputStream out) {
+    writer = new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()), BUFFER_SIZE);
+  }
+
+  // Write errors are ignored, as System.out ignores them, so a closed pipe doesn't stop a script.
+  @Override
+  public void print(Object value) {
+    try {
+      if (Numbers.isNumber(value)) {
+        NumberFormatter.write(Numbers.toDouble(value), writer, digits);
+      } else {
+        writer.write(Interpreter.stringify(value));
+      }
+      writer.write(lineSeparator);
+    } catch (IOException e) {
+      // Dropped, as above.
+    }
+  }
+
+  @Override
+  public void flush() {
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      // Dropped, as above.
+    }
+  }
+}
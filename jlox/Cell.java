@@ -0,0 +1,13 @@
+package jlox;
+
+/**
+ * Box for a local variable that a closure captures. The declaring scope and every closure over the
+ * variable share the cell, so a closure keeps only the variables it uses alive.
+ */
+class Cell {
+  Object value;
+
+  Cell(Object value) {
+    this.value = value;
+  }
+}
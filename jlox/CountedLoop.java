@@ -0,0 +1,62 @@
+package jlox;
+
+/**
+ * A loop of the shape `for (var i = start; i < limit; i = i + step) body`, as found by the
+ * {@link Resolver}. The interpreter keeps such a counter in a primitive long, or a double if the
+ * start or step isn't integral, instead of boxing it on every iteration. It stores the counter in
+ * its slot only if the body or limit reads it.
+ */
+class CountedLoop {
+  final int slot;
+  final TokenType comparison;
+  // A literal or a variable, so evaluating it again has no side effects.
+  final Expr limit;
+  final double step;
+  // Whether the step is a Long literal, so that an integer counter stays an integer.
+  final boolean integralStep;
+  final Stmt body;
+  final boolean readsCounter;
+
+  CountedLoop(
+      int slot,
+      TokenType comparison,
+      Expr limit,
+      double step,
+      boolean integralStep,
+      Stmt body,
+      boolean readsCounter) {
+    this.slot = slot;
+    this.comparison = comparison;
+    this.limit = limit;
+    this.step = step;
+    this.integralStep = integralStep;
+    this.body = body;
+    this.readsCounter = readsCounter;
+  }
+
+  boolean test(long counter, long limit) {
+    switch (comparison) {
+      case LESS:
+        return counter < limit;
+      case LESS_EQUAL:
+        return counter <= limit;
+      case GREATER:
+        return counter > limit;
+      default:
+        return counter >= limit;
+    }
+  }
+
+  boolean test(double counter, double limit) {
+    switch (comparison) {
+      case LESS:
+        return counter < limit;
+      case LESS_EQUAL:
+        return counter <= limit;
+      case GREATER:
+        return counter > limit;
+      default:
+        return counter >= limit;
+    }
+  }
+}
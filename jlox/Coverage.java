@@ -0,0 +1,308 @@
+package jlox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Line and branch coverage behind {@code jlox --coverage}. Before a script runs, every statement
+ * gets a probe number, and every if, while, 'and' and 'or' gets two more, one per way out of
+ * the branch. At runtime the interpreter sets the probe's bit in a bitmap that was sized up front,
+ * so recording a hit is one or-assignment: no hashing and no allocation.
+ *
+ * <p>Results are written as an LCOV tracefile, which genhtml and most CI coverage tools read. Over
+ * JMX the tracefile can also be written or the counts reset while the script is still running.
+ */
+class Coverage implements CoverageMXBean, Stmt.Visitor<Void>, Expr.Visitor<Void> {
+  // What each probe stands for. An if or while probe is followed by its two branch probes;
+  // 'and' and 'or' have only the two branch probes, so whether they ran at all is not recorded.
+  private static final byte STATEMENT = 0;
+  private static final byte GUARDED_BRANCHES = 1;
+  private static final byte BRANCHES = 2;
+  private static final byte SECOND_BRANCH = 3;
+
+  private final String source;
+  private final String tracefile;
+  private long[] bits = new long[16];
+  private byte[] kinds = new byte[1024];
+  private int[] lines = new int[1024];
+  private int probes = 0;
+
+  Coverage(String source, String tracefile) {
+    this.source = source;
+    this.tracefile = tracefile;
+  }
+
+  /** Publishes {@link #dump} and {@link #reset} as jlox:type=Coverage on the platform server. */
+  void register() {
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(this, new ObjectName("jlox:type=Coverage"));
+    } catch (JMException e) {
+      throw new IllegalStateException("Could not register coverage.", e);
+    }
+  }
+
+  /** Assigns probes to statements that don't have them yet, and grows the bitmap to match. */
+  void instrument(List<Stmt> statements) {
+    instrumentAll(statements);
+
+    int words = (probes + 63) >>> 6;
+    if (words > bits.length) {
+      bits = Arrays.copyOf(bits, Math.max(words, bits.length * 2));
+    }
+  }
+
+  void hit(int probe) {
+    bits[probe >>> 6] |= 1L << probe;
+  }
+
+  private boolean isHit(int probe) {
+    return (bits[probe >>> 6] & (1L << probe)) != 0;
+  }
+
+  @Override
+  public void reset() {
+    Arrays.fill(bits, 0);
+  }
+
+  @Override
+  public void dump() throws IOException {
+    try (Writer writer = Files.newBufferedWriter(Paths.get(tracefile), Charset.defaultCharset())) {
+      writeLcov(writer);
+    }
+  }
+
+  void writeLcov(Writer out) throws IOException {
+    PrintWriter writer = new PrintWriter(out);
+    writer.println("TN:");
+    writer.println("SF:" + source);
+
+    Map<Integer, Boolean> lineHits = new TreeMap<>();
+    int branches = 0;
+    int branchesHit = 0;
+    for (int probe = 0; probe < probes; probe++) {
+      switch (kinds[probe]) {
+        case STATEMENT:
+          lineHits.merge(lines[probe], isHit(probe), Boolean::logicalOr);
+          break;
+        case GUARDED_BRANCHES:
+        case BRANCHES:
+          boolean reached =
+              kinds[probe] == GUARDED_BRANCHES
+                  ? isHit(probe - 1)
+                  : isHit(probe) || isHit(probe + 1);
+          for (int branch = 0; branch < 2; branch++) {
+            boolean taken = isHit(probe + branch);
+            writer.println(
+                "BRDA:"
+                    + lines[probe]
+                    + ","
+                    + probe
+                    + ","
+                    + branch
+                    + ","
+                    + (reached ? (taken ? "1" : "0") : "-"));
+            branches += 1;
+            branchesHit += taken ? 1 : 0;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    writer.println("BRF:" + branches);
+    writer.println("BRH:" + branchesHit);
+
+    int linesHit = 0;
+    for (Map.Entry<Integer, Boolean> entry : lineHits.entrySet()) {
+      writer.println("DA:" + entry.getKey() + "," + (entry.getValue() ? 1 : 0));
+      linesHit += entry.getValue() ? 1 : 0;
+    }
+    writer.println("LF:" + lineHits.size());
+    writer.println("LH:" + linesHit);
+    writer.println("end_of_record");
+    writer.flush();
+  }
+
+  private int probe(byte kind, int line) {
+    if (probes == kinds.length) {
+      kinds = Arrays.copyOf(kinds, probes * 2);
+      lines = Arrays.copyOf(lines, probes * 2);
+    }
+    kinds[probes] = kind;
+    lines[probes] = line;
+    return probes++;
+  }
+
+  private void instrumentAll(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      instrument(statement);
+    }
+  }
+
+  private void instrument(Stmt stmt) {
+    // Statements cached by the prompt come through again already numbered.
+    if (stmt != null && stmt.probe < 0) {
+      stmt.probe = probe(STATEMENT, stmt.line);
+      stmt.accept(this);
+    }
+  }
+
+  private void instrument(Expr expr) {
+    if (expr != null) {
+      expr.accept(this);
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    instrumentAll(stmt.statements);
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    for (Stmt.Function method : stmt.methods) {
+      instrumentAll(method.body);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    instrument(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    instrumentAll(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    probe(GUARDED_BRANCHES, stmt.line);
+    probe(SECOND_BRANCH, stmt.line);
+    instrument(stmt.condition);
+    instrument(stmt.thenBranch);
+    instrument(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    instrument(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    instrument(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    instrument(stmt.initializer);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    probe(GUARDED_BRANCHES, stmt.line);
+    probe(SECOND_BRANCH, stmt.line);
+    instrument(stmt.condition);
+    instrument(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    instrument(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    instrument(expr.left);
+    instrument(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    instrument(expr.callee);
+    for (Expr argument : expr.arguments) {
+      instrument(argument);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    instrument(expr.object);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    instrument(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    if (expr.probe < 0) {
+      expr.probe = probe(BRANCHES, expr.operator.line());
+      probe(SECOND_BRANCH, expr.operator.line());
+    }
+    instrument(expr.left);
+    instrument(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    instrument(expr.object);
+    instrument(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    instrument(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    return null;
+  }
+}
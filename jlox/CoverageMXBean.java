@@ -0,0 +1,10 @@
+package jlox;
+
+/** Control over a running {@code jlox --coverage} session, published as jlox:type=Coverage. */
+public interface CoverageMXBean {
+  /** Writes the coverage collected so far to the session's LCOV tracefile. */
+  void dump() throws java.io.IOException;
+
+  /** Forgets everything collected so far. */
+  void reset();
+}
@@ -0,0 +1,96 @@
+package jlox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the errors of one run. Messages are either printed straight away or buffered, so that
+ * front-end work done on other threads can be replayed in a deterministic order.
+ */
+class Diagnostics {
+  private static class Entry {
+    // Negative for an error that belongs to no line.
+    final int line;
+    final String text;
+    final boolean runtime;
+
+    Entry(int line, String text, boolean runtime) {
+      this.line = line;
+      this.text = text;
+      this.runtime = runtime;
+    }
+  }
+
+  private final PrintStream out;
+  private final List<Entry> buffered = new ArrayList<>();
+  boolean hadError = false;
+  boolean hadRuntimeError = false;
+
+  Diagnostics(PrintStream out) {
+    this.out = out;
+  }
+
+  static Diagnostics buffered() {
+    return new Diagnostics(null);
+  }
+
+  void error(int line, String message) {
+    report(line, "", message);
+  }
+
+  /** Reports an error that belongs to no line of source, such as an unreadable file. */
+  void error(String message) {
+    print("", new Entry(-1, "Error: " + message, false));
+    hadError = true;
+  }
+
+  void error(Token token, String message) {
+    if (token.type == TokenType.EOF) {
+      report(token.line(), " at end", message);
+    } else {
+      report(token.line(), " at '" + token.lexeme + "'", message);
+    }
+  }
+
+  private void report(int line, String where, String message) {
+    print("", new Entry(line, "Error" + where + ": " + message, false));
+    hadError = true;
+  }
+
+  void runtimeError(RuntimeError error) {
+    print("", new Entry(error.token.line(), error.getMessage(), true));
+    hadRuntimeError = true;
+  }
+
+  private void print(String prefix, Entry entry) {
+    if (out == null) {
+      buffered.add(entry);
+    } else if (entry.line < 0) {
+      out.println(prefix + entry.text);
+    } else if (entry.runtime) {
+      out.println(prefix + entry.text + "\n[line " + entry.line + "]");
+    } else {
+      out.println(prefix + "[line " + entry.line + "] " + entry.text);
+    }
+  }
+
+  /** Passes everything buffered so far on to `other`, each message prefixed with `prefix`. */
+  void replayInto(Diagnostics other, String prefix) {
+    replayInto(other, prefix, 0);
+    buffered.clear();
+  }
+
+  /**
+   * Passes a copy of everything buffered on to `other`, with `lineOffset` added to every line.
+   * The messages stay buffered here, so they can be replayed again after the source moves.
+   */
+  void replayInto(Diagnostics other, String prefix, int lineOffset) {
+    for (Entry entry : buffered) {
+      int line = entry.line < 0 ? entry.line : entry.line + lineOffset;
+      other.print(prefix, new Entry(line, entry.text, entry.runtime));
+    }
+    other.hadError |= hadError;
+    other.hadRuntimeError |= hadRuntimeError;
+  }
+}
@@ -1,62 +1,30 @@
 package jlox;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * The slots of one function call, holding the locals of the function and of every block in it.
+ * Closures capture {@link Cell}s rather than environments, so an environment never outlives the
+ * call that created it.
+ */
 class Environment {
-  final Environment enclosing;
-  private final Map<String, Object> values = new HashMap<>();
-
-  Environment() {
-    enclosing = null;
-  }
-
-  Environment(Environment enclosing) {
-    this.enclosing = enclosing;
-  }
-
-  void define(String name, Object value) {
-    values.put(name, value);
-  }
-
-  Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
-    }
-
-    if (enclosing != null) {
-      return enclosing.get(name);
-    }
-
-    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
-  }
-
-  Object getAt(int distance, String name) {
-    if (distance == 0) {
-      return values.get(name);
-    }
-    return enclosing.getAt(distance - 1, name);
-  }
-
-  void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
-    }
-
-    if (enclosing != null) {
-      enclosing.assign(name, value);
-      return;
-    }
+  final Object[] slots;
 
-    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+  Environment(int size) {
+    this.slots = new Object[size];
+    RuntimeMetrics.countEnvironment();
   }
 
-  void assignAt(int distance, Token name, Object value) {
-    if (distance == 0) {
-      values.put(name.lexeme, value);
-      return;
+  /**
+   * Stores the initial value of a variable whose declaration just ran. A captured variable gets a
+   * fresh cell every time, so each iteration of a loop body has its own, unless the declaration
+   * redeclares a name in the same scope.
+   */
+  void define(Binding binding, Object value) {
+    if (binding.kind != Binding.Kind.CELL) {
+      slots[binding.index] = value;
+    } else if (binding.redeclaration) {
+      ((Cell) slots[binding.index]).value = value;
+    } else {
+      slots[binding.index] = new Cell(value);
     }
-    enclosing.assignAt(distance - 1, name, value);
   }
 }
@@ -42,6 +42,9 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+
+    // Filled in by the Resolver.
+    Binding binding;
   }
 
   static class Binary extends Expr {
@@ -59,6 +62,9 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+
+    // Filled in by TypeInference.
+    boolean numeric;
   }
 
   static class Call extends Expr {
@@ -76,6 +82,9 @@ abstract class Expr {
     final Expr callee;
     final Token paren;
     final List<Expr> arguments;
+
+    // Filled in by Inliner.
+    Inlined inlined;
   }
 
   static class Get extends Expr {
@@ -166,6 +175,10 @@ abstract class Expr {
 
     final Token keyword;
     final Token method;
+
+    // Filled in by the Resolver.
+    Binding binding;
+    Binding thisBinding;
   }
 
   static class This extends Expr {
@@ -179,6 +192,9 @@ abstract class Expr {
     }
 
     final Token keyword;
+
+    // Filled in by the Resolver.
+    Binding binding;
   }
 
   static class Unary extends Expr {
@@ -194,6 +210,9 @@ abstract class Expr {
 
     final Token operator;
     final Expr right;
+
+    // Filled in by TypeInference.
+    boolean numeric;
   }
 
   static class Variable extends Expr {
@@ -207,7 +226,13 @@ abstract class Expr {
     }
 
     final Token name;
+
+    // Filled in by the Resolver.
+    Binding binding;
   }
 
+  /** First coverage probe of this expression's branches, or -1 if it has none. */
+  int probe = -1;
+
   abstract <R> R accept(Visitor<R> visitor);
 }
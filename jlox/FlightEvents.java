@@ -0,0 +1,105 @@
+package jlox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for Lox-level activity, so a recording shows which Lox functions,
+ * classes and phases were running next to GC and CPU samples. They are recorded whenever a
+ * recording is running, for example one started with {@code -XX:StartFlightRecording}.
+ *
+ * <p>Callers check the {@code ...Enabled()} guard before creating an event, so a disabled event
+ * costs a flag read and no allocation.
+ */
+final class FlightEvents {
+  private static final EventType CALL = EventType.getEventType(Call.class);
+  private static final EventType INSTANTIATION = EventType.getEventType(Instantiation.class);
+  private static final EventType FAILURE = EventType.getEventType(Failure.class);
+  private static final EventType PHASE = EventType.getEventType(Phase.class);
+
+  private FlightEvents() {}
+
+  @Name("jlox.Call")
+  @Label("Lox Call")
+  @Category("Lox")
+  @Description("A call to a Lox function or method, from entry until it returns or throws.")
+  @StackTrace(false)
+  static class Call extends Event {
+    @Label("Function")
+    String function;
+
+    @Label("Line")
+    int line;
+  }
+
+  @Name("jlox.Instantiation")
+  @Label("Lox Instantiation")
+  @Category("Lox")
+  @Description("Creation of a Lox instance, including its initializer.")
+  @StackTrace(false)
+  static class Instantiation extends Event {
+    @Label("Class")
+    String className;
+  }
+
+  @Name("jlox.RuntimeError")
+  @Label("Lox Runtime Error")
+  @Category("Lox")
+  @Description("A runtime error that stopped the script.")
+  @StackTrace(false)
+  static class Failure extends Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+  }
+
+  @Name("jlox.Phase")
+  @Label("Lox Phase")
+  @Category("Lox")
+  @Description("One pass over a script: parse (including scanning), resolve or execute.")
+  @StackTrace(false)
+  static class Phase extends Event {
+    @Label("Phase")
+    String phase;
+  }
+
+  static boolean callEnabled() {
+    return CALL.isEnabled();
+  }
+
+  static boolean instantiationEnabled() {
+    return INSTANTIATION.isEnabled();
+  }
+
+  static boolean failureEnabled() {
+    return FAILURE.isEnabled();
+  }
+
+  static boolean phaseEnabled() {
+    return PHASE.isEnabled();
+  }
+
+  /** Starts timing a phase, or returns null when phase events are off. */
+  static Phase beginPhase(String name) {
+    if (!phaseEnabled()) {
+      return null;
+    }
+    Phase event = new Phase();
+    event.phase = name;
+    event.begin();
+    return event;
+  }
+
+  static void end(Event event) {
+    if (event != null) {
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Front end for long-lived sessions that re-check the same file after every edit, such as an
+ * editor integration or {@code jlox --watch}. The file is kept as a list of top-level
+ * declarations, each with its own statements and diagnostics. After an edit only the declarations
+ * it touches are scanned, parsed and resolved again; the rest are reused, and declarations further
+ * down just have their first line moved.
+ *
+ * <p>Resolving one top-level declaration never depends on another, because globals are looked up
+ * by name at runtime. That is what makes it safe to resolve declarations one at a time.
+ *
+ * <p>Parsing is per declaration too, so error recovery differs from a parse of the whole file. On
+ * source without errors the statements and diagnostics are the same as a full parse gives. Once
+ * there is a syntax error, the messages after it may not be: the parser resynchronizes at the end
+ * of the broken declaration, not somewhere later in the file. An unclosed brace, for instance, is
+ * reported at the end of its declaration rather than at the end of the file. Use a full parse, as
+ * {@code jlox script} or {@code jlox --check} does, when the exact messages matter.
+ */
+class IncrementalFrontEnd {
+  private static class Unit {
+    final String text;
+    final Token.Origin origin = new Token.Origin();
+    final Diagnostics diagnostics = Diagnostics.buffered();
+    final List<Stmt> statements;
+
+    Unit(String text) {
+      this.text = text;
+
+      // Lines come out relative to the origin while it is still at zero, so the diagnostics
+      // recorded here stay valid wherever the declaration moves.
+      TokenBuffer tokens = TokenBuffer.scan(text, origin, diagnostics);
+      statements = new Parser(tokens.stream(), diagnostics).parse();
+      if (!diagnostics.hadError) {
+        new Resolver(diagnostics).resolve(statements);
+      }
+    }
+  }
+
+  private final List<Unit> units = new ArrayList<>();
+  private final StringBuilder text = new StringBuilder();
+  private int rebuilt = 0;
+
+  IncrementalFrontEnd() {
+    Unit empty = new Unit("");
+    empty.origin.line = 1;
+    units.add(empty);
+  }
+
+  /** Replaces the whole text, reusing whatever did not change since the last update. */
+  void update(String source) {
+    int prefix = 0;
+    int limit = Math.min(text.length(), source.length());
+    while (prefix < limit && text.charAt(prefix) == source.charAt(prefix)) {
+      prefix += 1;
+    }
+    int suffix = 0;
+    while (suffix < limit - prefix
+        && text.charAt(text.length() - 1 - suffix) == source.charAt(source.length() - 1 - suffix)) {
+      suffix += 1;
+    }
+
+    edit(
+        prefix,
+        text.length() - prefix - suffix,
+        source.substring(prefix, source.length() - suffix));
+  }
+
+  /** Replaces `length` characters at `offset` with `replacement`. */
+  void edit(int offset, int length, String replacement) {
+    text.replace(offset, offset + length, replacement);
+
+    // Find the declaration holding the edit, then step back one more: typing 'else' at the start
+    // of a declaration can glue it to the one before.
+    int first = 0;
+    int start = 0;
+    while (first < units.size() - 1 && start + units.get(first).text.length() <= offset) {
+      start += units.get(first).text.length();
+      first += 1;
+    }
+    if (first > 0) {
+      first -= 1;
+      start -= units.get(first).text.length();
+    }
+
+    // Re-split from there until a new boundary lines up with an old one that lies past the edit.
+    // Nothing carries over a boundary, so everything after it would split exactly as before.
+    SourceSplitter splitter = new SourceSplitter(text, start, units.get(first).origin.line);
+    int oldEditEnd = offset + length;
+    int delta = replacement.length() - length;
+    Map<String, Unit> candidates = new HashMap<>();
+    List<Unit> fresh = new ArrayList<>();
+    int next = first;
+    int oldUnitEnd = start + units.get(first).text.length();
+    int last = units.size();
+    boolean synced = false;
+
+    while (!synced) {
+      int pieceStart = splitter.position();
+      int pieceLine = splitter.line();
+      splitter.nextBoundary();
+      int position = splitter.position();
+
+      // Old declarations passed so far may be reused if their text shows up again unchanged.
+      while (next < units.size()) {
+        int end = oldUnitEnd;
+        boolean afterEdit = end > oldEditEnd;
+        if (afterEdit && end + delta > position) {
+          break;
+        }
+        candidates.put(units.get(next).text, units.get(next));
+        next += 1;
+        if (next < units.size()) {
+          oldUnitEnd += units.get(next).text.length();
+        }
+        if (afterEdit && end + delta == position && next < units.size()) {
+          synced = true;
+          last = next;
+          break;
+        }
+      }
+
+      String piece = text.substring(pieceStart, position);
+      Unit unit = candidates.remove(piece);
+      if (unit == null) {
+        unit = new Unit(piece);
+        rebuilt += 1;
+      }
+      unit.origin.line = pieceLine;
+      fresh.add(unit);
+
+      if (splitter.isAtEnd()) {
+        break;
+      }
+    }
+
+    if (synced) {
+      int lineDelta = splitter.line() - units.get(last).origin.line;
+      for (int i = last; i < units.size(); i++) {
+        units.get(i).origin.line += lineDelta;
+      }
+    }
+    units.subList(first, last).clear();
+    units.addAll(first, fresh);
+  }
+
+  List<Stmt> statements() {
+    List<Stmt> statements = new ArrayList<>();
+    for (Unit unit : units) {
+      statements.addAll(unit.statements);
+    }
+    return statements;
+  }
+
+  /** Reports the current diagnostics of every declaration, in source order. */
+  void report(Diagnostics diagnostics) {
+    for (Unit unit : units) {
+      unit.diagnostics.replayInto(diagnostics, "", unit.origin.line);
+    }
+  }
+
+  /** Number of declarations that had to be scanned, parsed and resolved since creation. */
+  int rebuilt() {
+    return rebuilt;
+  }
+}
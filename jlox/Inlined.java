@@ -0,0 +1,21 @@
+package jlox;
+
+/**
+ * The body of a small function or method, copied by the {@link Inliner} for the calls that refer
+ * to it. The body is the expression of the function's only statement, a return, with the
+ * parameters and 'this' rebound as {@link Binding.Kind#ARGUMENT}s, so the interpreter can
+ * evaluate it without a new environment. It may do so only once it has checked that the callee is
+ * still {@code target}.
+ */
+class Inlined {
+  final Stmt.Function target;
+  final Expr body;
+  // Size of the argument array: the receiver, if any, then the parameters, as in target's frame.
+  final int slots;
+
+  Inlined(Stmt.Function target, Expr body, int slots) {
+    this.target = target;
+    this.body = body;
+    this.slots = slots;
+  }
+}
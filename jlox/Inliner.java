@@ -0,0 +1,290 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Marks calls to small functions and methods so the interpreter can evaluate a copy of the
+ * callee's body in place, without the environment, argument list and {@link Return} exception of
+ * a real call. Runs on a whole resolved program, after {@link TypeInference}.
+ *
+ * <p>A function is small if its body is a single return of an expression of at most {@link
+ * #MAX_NODES} nodes that makes no calls and no assignments, and reads only its parameters, 'this'
+ * and globals. So an inlined body can't recurse or run other Lox code.
+ *
+ * <p>A call is inlined when its callee is the global name of a small function declared once at the
+ * top level, or a property that only one small method in the program is named. Globals can be
+ * reassigned and fields can shadow methods, so at runtime the interpreter still checks that the
+ * callee is the function that was inlined and makes a real call if it isn't.
+ */
+class Inliner implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+  private static final int MAX_NODES = 16;
+
+  private final Map<String, List<Stmt.Function>> functions = new HashMap<>();
+  private final Map<String, List<Stmt.Function>> methods = new HashMap<>();
+  private final List<Expr.Call> calls = new ArrayList<>();
+  private final Map<Stmt.Function, Inlined> inlined = new HashMap<>();
+
+  /** Marks the calls in the program that can be inlined. */
+  void inline(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (statement instanceof Stmt.Function && ((Stmt.Function) statement).binding == null) {
+        Stmt.Function function = (Stmt.Function) statement;
+        functions.computeIfAbsent(function.name.lexeme, name -> new ArrayList<>()).add(function);
+      }
+    }
+    scanAll(statements);
+
+    for (Expr.Call call : calls) {
+      Stmt.Function target = target(call.callee);
+      if (target == null || target.params.size() != call.arguments.size()) {
+        continue;
+      }
+      Inlined copy = inlined.computeIfAbsent(target, Inliner::copyBody);
+      if (copy.body != null) {
+        call.inlined = copy;
+      }
+    }
+  }
+
+  // The only function a callee can refer to, if it is named by a global or a property.
+  private Stmt.Function target(Expr callee) {
+    List<Stmt.Function> candidates = null;
+    if (callee instanceof Expr.Variable && ((Expr.Variable) callee).binding == null) {
+      candidates = functions.get(((Expr.Variable) callee).name.lexeme);
+    } else if (callee instanceof Expr.Get) {
+      String name = ((Expr.Get) callee).name.lexeme;
+      candidates = name.equals("init") ? null : methods.get(name);
+    }
+    return candidates != null && candidates.size() == 1 ? candidates.get(0) : null;
+  }
+
+  // An Inlined with a null body if the function is too big or does too much.
+  private static Inlined copyBody(Stmt.Function function) {
+    Expr body = null;
+    if (function.body.size() == 1 && function.body.get(0) instanceof Stmt.Return) {
+      Expr value = ((Stmt.Return) function.body.get(0)).value;
+      int[] budget = {MAX_NODES};
+      body = value == null ? null : copy(value, budget);
+    }
+    return new Inlined(function, body, function.slots);
+  }
+
+  // Copies an expression with its locals rebound to the inlined call's arguments, or returns null
+  // if it can't be inlined.
+  private static Expr copy(Expr expr, int[] budget) {
+    if (--budget[0] < 0) {
+      return null;
+    }
+    if (expr instanceof Expr.Literal) {
+      return expr;
+    }
+    if (expr instanceof Expr.Variable) {
+      Expr.Variable variable = (Expr.Variable) expr;
+      if (variable.binding == null) {
+        return variable;
+      }
+      if (variable.binding.kind != Binding.Kind.LOCAL) {
+        return null;
+      }
+      Expr.Variable argument = new Expr.Variable(variable.name);
+      argument.binding = new Binding(Binding.Kind.ARGUMENT, variable.binding.index);
+      return argument;
+    }
+    if (expr instanceof Expr.This) {
+      Expr.This receiver = new Expr.This(((Expr.This) expr).keyword);
+      receiver.binding = new Binding(Binding.Kind.ARGUMENT, ((Expr.This) expr).binding.index);
+      return receiver;
+    }
+    if (expr instanceof Expr.Grouping) {
+      Expr inner = copy(((Expr.Grouping) expr).expression, budget);
+      return inner == null ? null : new Expr.Grouping(inner);
+    }
+    if (expr instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get) expr;
+      Expr object = copy(get.object, budget);
+      return object == null ? null : new Expr.Get(object, get.name);
+    }
+    if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary) expr;
+      Expr right = copy(unary.right, budget);
+      if (right == null) {
+        return null;
+      }
+      Expr.Unary result = new Expr.Unary(unary.operator, right);
+      result.numeric = unary.numeric;
+      return result;
+    }
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      Expr left = copy(binary.left, budget);
+      Expr right = left == null ? null : copy(binary.right, budget);
+      if (right == null) {
+        return null;
+      }
+      Expr.Binary result = new Expr.Binary(left, binary.operator, right);
+      result.numeric = binary.numeric;
+      return result;
+    }
+    if (expr instanceof Expr.Logical) {
+      Expr.Logical logical = (Expr.Logical) expr;
+      Expr left = copy(logical.left, budget);
+      Expr right = left == null ? null : copy(logical.right, budget);
+      return right == null ? null : new Expr.Logical(left, logical.operator, right);
+    }
+    // Calls, assignments, property sets and super.
+    return null;
+  }
+
+  private void scanAll(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      statement.accept(this);
+    }
+  }
+
+  private void scan(Expr expr) {
+    if (expr != null) {
+      expr.accept(this);
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    scanAll(stmt.statements);
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    scan(stmt.superclass);
+    for (Stmt.Function method : stmt.methods) {
+      methods.computeIfAbsent(method.name.lexeme, name -> new ArrayList<>()).add(method);
+      scanAll(method.body);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    scan(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    scanAll(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    scan(stmt.condition);
+    stmt.thenBranch.accept(this);
+    if (stmt.elseBranch != null) {
+      stmt.elseBranch.accept(this);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    scan(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    scan(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    scan(stmt.initializer);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    scan(stmt.condition);
+    stmt.body.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    scan(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    scan(expr.left);
+    scan(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    calls.add(expr);
+    scan(expr.callee);
+    for (Expr argument : expr.arguments) {
+      scan(argument);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    scan(expr.object);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    scan(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    scan(expr.left);
+    scan(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    scan(expr.object);
+    scan(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    scan(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    return null;
+  }
+}
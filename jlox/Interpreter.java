@@ -6,29 +6,151 @@ import java.util.List;
 import java.util.Map;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
-  final Environment globals = new Environment();
-  private Environment env = globals;
-  private final Map<Expr, Integer> locals = new HashMap<>();
-
-  Interpreter() {
-    globals.define(
-        "clock",
-        new LoxCallable() {
-          @Override
-          public int arity() {
-            return 0;
+  private static final Cell[] NO_UPVALUES = new Cell[0];
+
+  final Map<String, Object> globals = new HashMap<>();
+  private final Diagnostics diagnostics;
+  // Innermost scope of the running code, or null at the top level outside any block.
+  private Environment env = null;
+  private Cell[] upvalues = NO_UPVALUES;
+  // Arguments of the inlined call being evaluated, read through ARGUMENT bindings.
+  private Object[] inlineArguments = null;
+
+  // Set for `jlox --profile`; null otherwise, which costs one field check per statement.
+  Profiler profiler = null;
+
+  // Set for `jlox --coverage`, after every statement run has been instrumented.
+  Coverage coverage = null;
+
+  // Limits for untrusted scripts, or null for none.
+  Quota quota = null;
+
+  // Where print sends values. Embedders may replace it before running code.
+  OutputSink output;
+
+  Interpreter(Diagnostics diagnostics) {
+    this(diagnostics, new BufferedOutput(System.out));
+  }
+
+  Interpreter(Diagnostics diagnostics, OutputSink output) {
+    this.diagnostics = diagnostics;
+    this.output = output;
+    defineNative("clock", 0, arguments -> (double) System.currentTimeMillis() / 1000.0);
+
+    // Arrays and maps share get, set and length.
+    defineNative("array", 0, arguments -> new LoxArray());
+    defineNative("map", 0, arguments -> new LoxMap());
+    defineNative(
+        "length",
+        1,
+        arguments -> {
+          Object collection = arguments.get(0);
+          if (collection instanceof LoxMap) {
+            return (long) ((LoxMap) collection).size();
           }
-
-          @Override
-          public Object call(Interpreter interpreter, List<Object> arguments) {
-            return (double) System.currentTimeMillis() / 1000.0;
+          return (long) array(arguments, 0).length();
+        });
+    defineNative(
+        "get",
+        2,
+        arguments -> {
+          Object collection = arguments.get(0);
+          if (collection instanceof LoxMap) {
+            return ((LoxMap) collection).get(arguments.get(1));
           }
-
-          @Override
-          public String toString() {
-            return "<native fn>";
+          return array(arguments, 0).get(arguments.get(1));
+        });
+    defineNative(
+        "set",
+        3,
+        arguments -> {
+          Object collection = arguments.get(0);
+          if (collection instanceof LoxMap) {
+            ((LoxMap) collection).put(arguments.get(1), arguments.get(2));
+          } else {
+            array(arguments, 0).set(arguments.get(1), arguments.get(2));
           }
+          return arguments.get(2);
+        });
+    defineNative(
+        "push",
+        2,
+        arguments -> {
+          array(arguments, 0).push(arguments.get(1));
+          return null;
         });
+    defineNative(
+        "sort",
+        1,
+        arguments -> {
+          array(arguments, 0).sort();
+          return null;
+        });
+    defineNative("has", 2, arguments -> map(arguments, 0).has(arguments.get(1)));
+    defineNative("remove", 2, arguments -> map(arguments, 0).remove(arguments.get(1)));
+    defineNative("keys", 1, arguments -> map(arguments, 0).keys());
+    defineNative(
+        "putAll",
+        2,
+        arguments -> {
+          map(arguments, 0).putAll(map(arguments, 1));
+          return null;
+        });
+
+    defineNative("openFile", 1, arguments -> new LoxFile(string(arguments, 0)));
+    defineNative("fileSize", 1, arguments -> file(arguments, 0).size());
+    defineNative("readLine", 1, arguments -> file(arguments, 0).readLine());
+    defineNative(
+        "readBytes",
+        3,
+        arguments -> file(arguments, 0).readBytes(arguments.get(1), arguments.get(2)));
+    defineNative(
+        "parseColumn",
+        3,
+        arguments -> file(arguments, 0).parseColumn(arguments.get(1), arguments.get(2)));
+    defineNative(
+        "closeFile",
+        1,
+        arguments -> {
+          file(arguments, 0).close();
+          return null;
+        });
+  }
+
+  private void defineNative(String name, int arity, NativeFunction.Body body) {
+    globals.put(name, new NativeFunction(arity, body));
+  }
+
+  private static LoxArray array(List<Object> arguments, int index) {
+    Object argument = arguments.get(index);
+    if (!(argument instanceof LoxArray)) {
+      throw new NativeError("Argument must be an array.");
+    }
+    return (LoxArray) argument;
+  }
+
+  private static LoxMap map(List<Object> arguments, int index) {
+    Object argument = arguments.get(index);
+    if (!(argument instanceof LoxMap)) {
+      throw new NativeError("Argument must be a map.");
+    }
+    return (LoxMap) argument;
+  }
+
+  private static LoxFile file(List<Object> arguments, int index) {
+    Object argument = arguments.get(index);
+    if (!(argument instanceof LoxFile)) {
+      throw new NativeError("Argument must be a file.");
+    }
+    return (LoxFile) argument;
+  }
+
+  private static String string(List<Object> arguments, int index) {
+    Object argument = arguments.get(index);
+    if (!(argument instanceof String)) {
+      throw new NativeError("Argument must be a string.");
+    }
+    return (String) argument;
   }
 
   private Object evaluate(Expr expr) {
@@ -36,13 +158,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
   }
 
   private void execute(Stmt stmt) {
+    RuntimeMetrics.countStatement();
+    if (profiler != null) {
+      profiler.statement(stmt);
+    }
+    if (coverage != null) {
+      coverage.hit(stmt.probe);
+    }
     stmt.accept(this);
   }
 
-  void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
-  }
-
   void executeBlock(List<Stmt> statements, Environment env) {
     Environment pre = this.env;
     try {
@@ -56,6 +181,48 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     }
   }
 
+  /** Runs a function body in its own environment, with the closure's captured cells. */
+  void executeBody(List<Stmt> body, Environment env, Cell[] upvalues) {
+    Environment pre = this.env;
+    Cell[] preUpvalues = this.upvalues;
+    try {
+      this.env = env;
+      this.upvalues = upvalues;
+
+      for (Stmt statement : body) {
+        execute(statement);
+      }
+    } finally {
+      this.env = pre;
+      this.upvalues = preUpvalues;
+    }
+  }
+
+  // The cells a new closure captures, read from the scopes around its declaration.
+  private Cell[] capture(List<Binding> captures) {
+    if (captures.isEmpty()) {
+      return NO_UPVALUES;
+    }
+    Cell[] cells = new Cell[captures.size()];
+    for (int i = 0; i < cells.length; i++) {
+      Binding binding = captures.get(i);
+      if (binding.kind == Binding.Kind.UPVALUE) {
+        cells[i] = upvalues[binding.index];
+      } else {
+        cells[i] = (Cell) env.slots[binding.index];
+      }
+    }
+    return cells;
+  }
+
+  private void define(Binding binding, Token name, Object value) {
+    if (binding == null) {
+      globals.put(name.lexeme, value);
+    } else {
+      env.define(binding, value);
+    }
+  }
+
   private boolean isEqual(Object left, Object right) {
     if (left == null && right == null) {
       return true;
@@ -63,6 +230,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     if (left == null) {
       return false;
     }
+    if (Numbers.isNumber(left) && Numbers.isNumber(right)) {
+      return Numbers.equal(left, right);
+    }
     return left.equals(right);
   }
 
@@ -77,23 +247,19 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
   }
 
   private void checkNumberOperand(Token operator, Object operand) {
-    if (operand instanceof Double) {
+    if (Numbers.isNumber(operand)) {
       return;
     }
     throw new RuntimeError(operator, "Operand must be a number.");
   }
 
-  private String stringify(Object object) {
+  static String stringify(Object object) {
     if (object == null) {
       return "nil";
     }
 
-    if (object instanceof Double) {
-      String text = object.toString();
-      if (text.endsWith(".0")) {
-        text = text.substring(0, text.length() - 2);
-      }
-      return text;
+    if (Numbers.isNumber(object)) {
+      return NumberFormatter.format(Numbers.toDouble(object));
     }
     return object.toString();
   }
@@ -107,26 +273,29 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
       }
     }
-    env.define(stmt.name.lexeme, null);
+    define(stmt.binding, stmt.name, null);
 
+    Environment enclosing = env;
     if (stmt.superclass != null) {
-      env = new Environment(env);
-      env.define("super", superclass);
+      if (stmt.slots > 0) {
+        env = new Environment(stmt.slots);
+      }
+      env.define(stmt.superBinding, superclass);
     }
 
     Map<String, LoxFunction> methods = new HashMap<>();
     for (Stmt.Function method : stmt.methods) {
-      LoxFunction function = new LoxFunction(method, env, method.name.lexeme.equals("init"));
+      LoxFunction function =
+          new LoxFunction(
+              method, capture(method.upvalues), null, method.name.lexeme.equals("init"));
       methods.put(method.name.lexeme, function);
     }
 
     LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
 
-    if (superclass != null) {
-      env = env.enclosing;
-    }
+    env = enclosing;
 
-    env.assign(stmt.name, klass);
+    assign(stmt.binding, stmt.name, klass);
     return null;
   }
 
@@ -138,15 +307,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
-    LoxFunction function = new LoxFunction(stmt, env, false);
-    env.define(stmt.name.lexeme, function);
+    // Declare first, so a function that calls itself can capture its own variable.
+    define(stmt.binding, stmt.name, null);
+    assign(stmt.binding, stmt.name, new LoxFunction(stmt, capture(stmt.upvalues), null, false));
     return null;
   }
 
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    output.print(value);
     return null;
   }
 
@@ -167,27 +337,129 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
       value = evaluate(stmt.initializer);
     }
 
-    env.define(stmt.name.lexeme, value);
+    define(stmt.binding, stmt.name, value);
     return null;
   }
 
   @Override
   public Void visitWhileStmt(Stmt.While stmt) {
+    // Profiling and coverage want to see every statement, so they take the general path.
+    if (stmt.counted != null && profiler == null && coverage == null) {
+      runCountedLoop(stmt);
+      return null;
+    }
+    runLoop(stmt);
+    return null;
+  }
+
+  private void runLoop(Stmt.While stmt) {
     while (isTruthy(evaluate(stmt.condition))) {
+      if (coverage != null) {
+        coverage.hit(stmt.probe + 1);
+      }
+      if (quota != null) {
+        quota.tick(stmt.line);
+      }
       execute(stmt.body);
     }
-    return null;
+    if (coverage != null) {
+      coverage.hit(stmt.probe + 2);
+    }
+  }
+
+  // Runs a counted loop with the counter in a local long or double. If the counter or the limit
+  // turns out not to be a number, or an integer counter leaves the Long range, hands over to the
+  // general loop, which carries on exactly as the loop would have.
+  private void runCountedLoop(Stmt.While stmt) {
+    CountedLoop loop = stmt.counted;
+    Object[] slots = env.slots;
+    Object start = slots[loop.slot];
+    if (start instanceof Long && loop.integralStep) {
+      runIntegerLoop(stmt, slots, (long) start);
+      return;
+    }
+    if (!Numbers.isNumber(start)) {
+      runLoop(stmt);
+      return;
+    }
+
+    double counter = Numbers.toDouble(start);
+    for (; ; ) {
+      if (loop.readsCounter) {
+        slots[loop.slot] = counter;
+      }
+      Object limit = evaluate(loop.limit);
+      if (!Numbers.isNumber(limit)) {
+        slots[loop.slot] = counter;
+        runLoop(stmt);
+        return;
+      }
+      if (!loop.test(counter, Numbers.toDouble(limit))) {
+        return;
+      }
+      if (quota != null) {
+        quota.tick(stmt.line);
+      }
+      execute(loop.body);
+      counter += loop.step;
+    }
+  }
+
+  private void runIntegerLoop(Stmt.While stmt, Object[] slots, long counter) {
+    CountedLoop loop = stmt.counted;
+    long step = (long) loop.step;
+    for (; ; ) {
+      if (loop.readsCounter) {
+        slots[loop.slot] = counter;
+      }
+      Object limit = evaluate(loop.limit);
+      boolean more;
+      if (limit instanceof Long) {
+        more = loop.test(counter, (long) limit);
+      } else if (limit instanceof Double) {
+        more = loop.test((double) counter, (double) limit);
+      } else {
+        slots[loop.slot] = counter;
+        runLoop(stmt);
+        return;
+      }
+      if (!more) {
+        return;
+      }
+      if (quota != null) {
+        quota.tick(stmt.line);
+      }
+      execute(loop.body);
+      counter += step;
+      if (Math.abs(counter) > Numbers.MAX_INTEGER) {
+        slots[loop.slot] = (double) counter;
+        runLoop(stmt);
+        return;
+      }
+    }
   }
 
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.statements, new Environment(env));
+    // Blocks share their function's environment; only one outside any function needs its own.
+    if (stmt.slots == 0) {
+      for (Stmt statement : stmt.statements) {
+        execute(statement);
+      }
+    } else {
+      executeBlock(stmt.statements, new Environment(stmt.slots));
+    }
     return null;
   }
 
   @Override
   public Void visitIfStmt(Stmt.If stmt) {
-    if (isTruthy(evaluate(stmt.condition))) {
+    boolean condition = isTruthy(evaluate(stmt.condition));
+    if (coverage != null) {
+      coverage.hit(stmt.probe + (condition ? 1 : 2));
+    }
+
+    if (condition) {
       execute(stmt.thenBranch);
     } else if (stmt.elseBranch != null) {
       execute(stmt.elseBranch);
@@ -198,20 +470,38 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
+    assign(expr.binding, expr.name, value);
+    return value;
+  }
 
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      env.assignAt(distance, expr.name, value);
-    } else {
-      globals.assign(expr.name, value);
+  private void assign(Binding binding, Token name, Object value) {
+    if (binding == null) {
+      if (!globals.containsKey(name.lexeme)) {
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+      }
+      globals.put(name.lexeme, value);
+      return;
     }
 
-    return value;
+    switch (binding.kind) {
+      case LOCAL:
+        env.slots[binding.index] = value;
+        break;
+      case CELL:
+        ((Cell) env.slots[binding.index]).value = value;
+        break;
+      default:
+        upvalues[binding.index].value = value;
+        break;
+    }
   }
 
   @Override
   public Object visitGetExpr(Expr.Get expr) {
-    Object object = evaluate(expr.object);
+    return getProperty(expr, evaluate(expr.object));
+  }
+
+  private Object getProperty(Expr.Get expr, Object object) {
     if (object instanceof LoxInstance) {
       return ((LoxInstance) object).get(expr.name);
     }
@@ -228,14 +518,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
   public Object visitLogicalExpr(Expr.Logical expr) {
     Object left = evaluate(expr.left);
 
-    if (expr.operator.type == TokenType.OR) {
-      if (isTruthy(left)) {
-        return left;
-      } else {
-        if (!isTruthy(left)) {
-          return left;
-        }
-      }
+    boolean shortCircuit =
+        expr.operator.type == TokenType.OR ? isTruthy(left) : !isTruthy(left);
+    if (coverage != null) {
+      coverage.hit(expr.probe + (shortCircuit ? 0 : 1));
+    }
+    if (shortCircuit) {
+      return left;
     }
 
     return evaluate(expr.right);
@@ -256,11 +545,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    int distance = locals.get(expr);
-
-    LoxClass superclass = (LoxClass) env.getAt(distance, "super");
+    LoxClass superclass = (LoxClass) lookUpVariable(expr.keyword, expr.binding);
 
-    LoxInstance object = (LoxInstance) env.getAt(distance - 1, "this");
+    LoxInstance object = (LoxInstance) lookUpVariable(expr.keyword, expr.thisBinding);
 
     LoxFunction method = superclass.findMethod(expr.method.lexeme);
 
@@ -273,7 +560,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitThisExpr(Expr.This expr) {
-    return lookUpVariable(expr.keyword, expr);
+    return lookUpVariable(expr.keyword, expr.binding);
   }
 
   @Override
@@ -286,7 +573,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     Object right = evaluate(expr.right);
     switch (expr.operator.type) {
       case MINUS:
-        checkNumberOperand(expr.operator, right);
+        if (right instanceof Long) {
+          return Numbers.negate((long) right);
+        }
+        if (!expr.numeric) {
+          checkNumberOperand(expr.operator, right);
+        }
         return -(double) right;
       case BANG:
         return !isTruthy(right);
@@ -299,16 +591,55 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return lookUpVariable(expr.name, expr);
+    return lookUpVariable(expr.name, expr.binding);
   }
 
-  private Object lookUpVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      return env.getAt(distance, name.lexeme);
-    } else {
-      return globals.get(name);
+  private Object lookUpVariable(Token name, Binding binding) {
+    if (binding == null) {
+      Object value = globals.get(name.lexeme);
+      if (value == null && !globals.containsKey(name.lexeme)) {
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+      }
+      return value;
+    }
+
+    switch (binding.kind) {
+      case LOCAL:
+        RuntimeMetrics.countLookup(0);
+        return env.slots[binding.index];
+      case CELL:
+        RuntimeMetrics.countLookup(1);
+        return ((Cell) env.slots[binding.index]).value;
+      case ARGUMENT:
+        return inlineArguments[binding.index];
+      default:
+        RuntimeMetrics.countLookup(1);
+        return upvalues[binding.index].value;
+    }
+  }
+
+  private Object binaryExprLong(Token operator, long left, long right) {
+    switch (operator.type) {
+      case GREATER:
+        return left > right;
+      case GREATER_EQUAL:
+        return left >= right;
+      case LESS:
+        return left < right;
+      case LESS_EQUAL:
+        return left <= right;
+      case MINUS:
+        return Numbers.subtract(left, right);
+      case PLUS:
+        return Numbers.add(left, right);
+      case SLASH:
+        return (double) left / (double) right;
+      case STAR:
+        return Numbers.multiply(left, right);
+      default:
+        break;
     }
+    return null;
   }
 
   private Object binaryExprDouble(Token operator, double left, double right) {
@@ -349,8 +680,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         break;
     }
 
-    if (left instanceof Double && right instanceof Double) {
-      return binaryExprDouble(expr.operator, (double) left, (double) right);
+    if (left instanceof Long && right instanceof Long) {
+      return binaryExprLong(expr.operator, (long) left, (long) right);
+    }
+    // Type inference proved both operands are numbers, so the type checks can be skipped.
+    if (expr.numeric || Numbers.isNumber(left) && Numbers.isNumber(right)) {
+      return binaryExprDouble(expr.operator, Numbers.toDouble(left), Numbers.toDouble(right));
     }
 
     if (left instanceof String && right instanceof String) {
@@ -366,7 +701,30 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitCallExpr(Expr.Call expr) {
-    Object callee = evaluate(expr.callee);
+    Object callee;
+    Inlined inlined = expr.inlined;
+    // The profiler, coverage and flight recorder all need to see the real call.
+    if (inlined != null && profiler == null && coverage == null && !FlightEvents.callEnabled()) {
+      if (expr.callee instanceof Expr.Get) {
+        Expr.Get property = (Expr.Get) expr.callee;
+        Object object = evaluate(property.object);
+        if (object instanceof LoxInstance) {
+          LoxFunction method = ((LoxInstance) object).findMethod(property.name.lexeme);
+          if (method != null && method.declaration == inlined.target) {
+            return callInlined(expr, object);
+          }
+        }
+        callee = getProperty(property, object);
+      } else {
+        callee = evaluate(expr.callee);
+        if (callee instanceof LoxFunction
+            && ((LoxFunction) callee).declaration == inlined.target) {
+          return callInlined(expr, null);
+        }
+      }
+    } else {
+      callee = evaluate(expr.callee);
+    }
 
     List<Object> arguments = new ArrayList<>();
     for (Expr argument : expr.arguments) {
@@ -385,16 +743,73 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
           "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
     }
 
-    return function.call(this, arguments);
+    RuntimeMetrics.countCall();
+    if (quota != null) {
+      quota.tick(expr.paren.line());
+    }
+    try {
+      return function.call(this, arguments);
+    } catch (NativeError error) {
+      throw new RuntimeError(expr.paren, error.getMessage());
+    } catch (StackOverflowError error) {
+      // Thrown from the innermost call; the frames it unwinds leave room to report it.
+      throw new RuntimeError(expr.paren, "Stack overflow.");
+    }
+  }
+
+  // Evaluates the copied body of a small callee that the guard in visitCallExpr confirmed.
+  private Object callInlined(Expr.Call expr, Object receiver) {
+    Stmt.Function target = expr.inlined.target;
+    Object[] arguments = new Object[expr.inlined.slots];
+    if (target.receiver != null) {
+      arguments[target.receiver.index] = receiver;
+    }
+    for (int i = 0; i < expr.arguments.size(); i++) {
+      arguments[target.parameters.get(i).index] = evaluate(expr.arguments.get(i));
+    }
+
+    RuntimeMetrics.countCall();
+    if (quota != null) {
+      quota.tick(expr.paren.line());
+    }
+    // Inlined bodies make no calls, so this can't be replaced while the body runs.
+    inlineArguments = arguments;
+    return evaluate(expr.inlined.body);
   }
 
   void interpret(List<Stmt> statements) {
+    if (quota != null) {
+      quota.start();
+    }
     try {
-      for (Stmt statement : statements) {
-        execute(statement);
+      try {
+        for (Stmt statement : statements) {
+          execute(statement);
+        }
+      } finally {
+        // Before any error message, so it comes after the output that preceded it.
+        output.flush();
       }
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      reportRuntimeError(error);
+    } catch (OutOfMemoryError error) {
+      // Only a script under a memory limit answers for the heap running out. Whatever it held is
+      // unreachable by now, so there is room to report it. Any other exhaustion isn't the
+      // script's fault and goes on up.
+      if (quota == null || !quota.reportsOutOfMemory()) {
+        throw error;
+      }
+      reportRuntimeError(quota.outOfMemory());
+    }
+  }
+
+  private void reportRuntimeError(RuntimeError error) {
+    if (FlightEvents.failureEnabled()) {
+      FlightEvents.Failure event = new FlightEvents.Failure();
+      event.message = error.getMessage();
+      event.line = error.token.line();
+      event.commit();
     }
+    diagnostics.runtimeError(error);
   }
 }
@@ -1,22 +1,124 @@
 package jlox;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class Lox {
-  private static final Interpreter interpreter = new Interpreter();
-  static boolean hadError = false;
-  static boolean hadRuntimeError = false;
-
-  public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64);
+  private static final Diagnostics diagnostics = new Diagnostics(System.err);
+  private static final Interpreter interpreter = new Interpreter(diagnostics);
+
+  // Lines typed again at the prompt reuse their parsed and resolved statements. Resolution of a
+  // top-level line doesn't depend on earlier lines, so a cached result stays valid.
+  private static final int PROMPT_CACHE_SIZE = 256;
+  private static final Map<String, List<Stmt>> promptCache =
+      new LinkedHashMap<String, List<Stmt>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Stmt>> eldest) {
+          return size() > PROMPT_CACHE_SIZE;
+        }
+      };
+
+  // How long --watch waits after a file event for the rest of the save before checking.
+  private static final long WATCH_SETTLE_MILLIS = 50;
+
+  // Each Lox call nests several Java frames, so scripts run on a thread whose stack is sized by
+  // -Djlox.stack rather than by -Xss. Stack pages are only committed as recursion reaches them.
+  private static final String DEFAULT_STACK = "128m";
+
+  public static void main(String[] args) throws Exception {
+    Throwable[] failure = new Throwable[1];
+    Thread thread =
+        new Thread(
+            null,
+            () -> {
+              try {
+                start(args);
+              } catch (Throwable e) {
+                failure[0] = e;
+              }
+            },
+            "jlox",
+            stackSize());
+    thread.start();
+    thread.join();
+    if (failure[0] instanceof IOException) {
+      throw (IOException) failure[0];
+    }
+    if (failure[0] != null) {
+      // Not a script error but a bug in jlox or an exhausted JVM, and still a failed run.
+      failure[0].printStackTrace();
+      System.exit(70);
+    }
+  }
+
+  /** The stack size for threads that run scripts. */
+  static long stackSize() {
+    return parseSize(System.getProperty("jlox.stack", DEFAULT_STACK));
+  }
+
+  /** Parses a byte count with an optional k, m or g suffix, as -Xss takes. */
+  static long parseSize(String size) {
+    String digits = size.toLowerCase(Locale.ROOT);
+    long unit = 1;
+    switch (digits.charAt(digits.length() - 1)) {
+      case 'k':
+        unit = 1L << 10;
+        break;
+      case 'm':
+        unit = 1L << 20;
+        break;
+      case 'g':
+        unit = 1L << 30;
+        break;
+      default:
+        return Long.parseLong(digits);
+    }
+    return Long.parseLong(digits.substring(0, digits.length() - 1)) * unit;
+  }
+
+  private static void start(String[] args) throws IOException {
+    if (RuntimeMetrics.ENABLED) {
+      RuntimeMetrics.register();
+    }
+    interpreter.quota = Quota.fromProperties();
+    if (args.length > 0 && args[0].equals("--check")) {
+      checkFiles(Arrays.asList(args).subList(1, args.length));
+    } else if (args.length == 2 && args[0].equals("--watch")) {
+      watchFile(args[1]);
+    } else if (args.length == 2 && args[0].equals("--parallel")) {
+      runParallel(args[1]);
+    } else if (args.length == 2 && args[0].equals("--profile")) {
+      profileFile(args[1]);
+    } else if (args.length == 2 && args[0].equals("--coverage")) {
+      coverFile(args[1]);
+    } else if (args.length == 2 && args[0].equals("--types")) {
+      reportTypes(args[1]);
+    } else if (args.length > 0 && args[0].equals("--batch")) {
+      batchFiles(Arrays.asList(args).subList(1, args.length));
+    } else if (args.length == 2 && args[0].equals("--serve")) {
+      new ScriptServer(Paths.get(args[1])).serve();
+    } else if (args.length > 1) {
+      usage();
     } else if (args.length == 1) {
       runFile(args[0]);
     } else {
@@ -24,18 +126,207 @@ public class Lox {
     }
   }
 
+  private static void usage() {
+    System.out.println(
+        "Usage: jlox [script] | jlox --check [script...] | jlox --parallel [script]"
+            + " | jlox --profile [script] | jlox --coverage [script] | jlox --types [script]"
+            + " | jlox --watch [script] | jlox --serve [socket]"
+            + " | jlox --batch [--jobs N] [--cache] [script | directory...]");
+    System.out.println(
+        "--watch parses one declaration at a time. After a syntax error its messages can differ"
+            + " from those of --check.");
+    System.exit(64);
+  }
+
   private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+    runScript(path);
+    exitOnError();
+  }
+
+  private static void runScript(String path) throws IOException {
+    // Stream the script through the scanner instead of loading it whole.
+    try (Reader reader =
+        new InputStreamReader(Files.newInputStream(Paths.get(path)), Charset.defaultCharset())) {
+      TokenStream tokens = new ScannerTokenStream(new Scanner(reader, 1, diagnostics));
+      run(() -> new Parser(tokens, diagnostics).parse(), true);
+    }
+  }
+
+  // Reads a script whole and parses it in pieces side by side. Faster for a large script when
+  // there is memory to hold it several times over; runFile streams it instead.
+  private static void runParallel(String path) throws IOException {
+    String source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+    ParallelFrontEnd frontEnd = new ParallelFrontEnd(ForkJoinPool.commonPool());
+    run(() -> frontEnd.parse(source, diagnostics), true);
+    exitOnError();
+  }
+
+  // Prints the inferred types of a script's functions and its type-unstable operations without
+  // running it.
+  private static void reportTypes(String path) throws IOException {
+    List<Stmt> statements;
+    try (Reader reader =
+        new InputStreamReader(Files.newInputStream(Paths.get(path)), Charset.defaultCharset())) {
+      TokenStream tokens = new ScannerTokenStream(new Scanner(reader, 1, diagnostics));
+      statements = new Parser(tokens, diagnostics).parse();
+    }
+    if (!diagnostics.hadError) {
+      new Resolver(diagnostics).resolve(statements);
+    }
+    if (diagnostics.hadError) {
+      System.exit(65);
+    }
+
+    TypeInference types = new TypeInference();
+    types.infer(statements);
+    types.report(System.out);
+  }
+
+  // Runs a script under the profiler, then prints the report to stderr and writes folded stacks
+  // for flame graphs next to the script.
+  private static void profileFile(String path) throws IOException {
+    Profiler profiler = new Profiler();
+    interpreter.profiler = profiler;
+    runScript(path);
+    interpreter.profiler = null;
+
+    System.out.flush();
+    profiler.report(System.err, 20);
+    String folded = path + ".folded";
+    try (Writer writer = Files.newBufferedWriter(Paths.get(folded), Charset.defaultCharset())) {
+      profiler.writeFolded(writer);
+    }
+    System.err.println();
+    System.err.println("Folded stacks written to " + folded);
+    exitOnError();
+  }
+
+  // Runs a script with coverage on and writes an LCOV tracefile next to it. With -Djlox.jmx=true
+  // the coverage can also be dumped or reset while the script runs.
+  private static void coverFile(String path) throws IOException {
+    String tracefile = path + ".lcov";
+    Coverage coverage = new Coverage(path, tracefile);
+    if (Boolean.getBoolean("jlox.jmx")) {
+      coverage.register();
+    }
+    interpreter.coverage = coverage;
+    runScript(path);
+
+    coverage.dump();
+    System.err.println("Coverage written to " + tracefile);
+    exitOnError();
+  }
+
+  // Runs scripts concurrently, each with its own interpreter, and exits with the highest exit
+  // code of any of them.
+  private static void batchFiles(List<String> args) throws IOException {
+    int jobs = Runtime.getRuntime().availableProcessors();
+    boolean cache = false;
+    int i = 0;
+    for (; i < args.size() && args.get(i).startsWith("--"); i++) {
+      if (args.get(i).equals("--jobs")) {
+        jobs = i + 1 < args.size() ? parseJobs(args.get(++i)) : 0;
+        if (jobs < 1) {
+          System.out.println("--jobs takes a positive number of worker threads.");
+          usage();
+        }
+      } else if (args.get(i).equals("--cache")) {
+        cache = true;
+      } else {
+        System.out.println("Unknown batch option " + args.get(i));
+        System.exit(64);
+      }
+    }
 
-    if (hadError) {
+    List<String> paths = BatchRunner.expand(args.subList(i, args.size()));
+    long start = System.nanoTime();
+    List<BatchRunner.Job> results;
+    try {
+      results = new BatchRunner(jobs, cache).run(paths);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    BatchRunner.printSummary(System.out, results, System.nanoTime() - start);
+
+    int exitCode = 0;
+    for (BatchRunner.Job job : results) {
+      exitCode = Math.max(exitCode, job.exitCode);
+    }
+    System.exit(exitCode);
+  }
+
+  // Zero for anything that isn't a number.
+  private static int parseJobs(String count) {
+    try {
+      return Integer.parseInt(count);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static void exitOnError() {
+    if (diagnostics.hadError) {
       System.exit(65);
     }
-    if (hadRuntimeError) {
+    if (diagnostics.hadRuntimeError) {
       System.exit(70);
     }
   }
 
+  // Front end only: scans, parses and resolves many files in parallel without running them.
+  private static void checkFiles(List<String> paths) {
+    new ParallelFrontEnd(ForkJoinPool.commonPool()).check(paths, diagnostics);
+    if (diagnostics.hadError) {
+      System.exit(65);
+    }
+  }
+
+  // Front end only, for editors: checks a script every time it is saved, until killed. Only the
+  // declarations an edit touched are scanned, parsed and resolved again, so with a syntax error
+  // the messages can differ from --check's; see IncrementalFrontEnd.
+  private static void watchFile(String path) throws IOException {
+    Path file = Paths.get(path).toAbsolutePath();
+    IncrementalFrontEnd frontEnd = new IncrementalFrontEnd();
+    String checked = null;
+    try (WatchService watcher = file.getFileSystem().newWatchService()) {
+      file.getParent().register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+      for (; ; ) {
+        String source = null;
+        try {
+          source = new String(Files.readAllBytes(file), Charset.defaultCharset());
+        } catch (IOException e) {
+          // Editors that save by replacing the file leave it missing for a moment.
+        }
+        // Other files in the directory raise events too; unchanged text has nothing to report.
+        if (source != null && !source.equals(checked)) {
+          int rebuilt = frontEnd.rebuilt();
+          frontEnd.update(source);
+          Diagnostics report = new Diagnostics(System.err);
+          frontEnd.report(report);
+          System.err.println(
+              "Checked " + path + ": " + (report.hadError ? "errors" : "no errors") + ", "
+                  + (frontEnd.rebuilt() - rebuilt) + " declarations parsed again.");
+          checked = source;
+        }
+
+        // A save can come as a truncate and then writes. Wait for the burst to settle so a half
+        // written file isn't checked.
+        try {
+          for (WatchKey key = watcher.take();
+              key != null;
+              key = watcher.poll(WATCH_SETTLE_MILLIS, TimeUnit.MILLISECONDS)) {
+            key.pollEvents();
+            key.reset();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
   private static void runPrompt() throws IOException {
     InputStreamReader input = new InputStreamReader(System.in);
     BufferedReader reader = new BufferedReader(input);
@@ -46,30 +337,67 @@ public class Lox {
       if (line == null) {
         break;
       }
-      run(line);
-      hadError = false;
+
+      List<Stmt> statements = promptCache.get(line);
+      if (statements != null) {
+        interpreter.interpret(statements);
+        continue;
+      }
+
+      TokenStream tokens = TokenBuffer.scan(line, diagnostics).stream();
+      statements = run(() -> new Parser(tokens, diagnostics).parse(), false);
+      if (statements != null) {
+        promptCache.put(line, statements);
+      }
+      diagnostics.hadError = false;
     }
   }
 
-  private static void run(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
+  // Returns the statements that were run, or null if the front end reported errors. Only a whole
+  // program can have its types inferred; a line at the prompt may be followed by anything.
+  private static List<Stmt> run(Supplier<List<Stmt>> parser, boolean wholeProgram) {
+    // Scanning is pulled by the parser, so the parse phase includes it.
+    RuntimeMetrics.countScript();
+    FlightEvents.Phase phase = FlightEvents.beginPhase("parse");
+    long start = System.nanoTime();
+    List<Stmt> statements = parser.get();
+    long end = System.nanoTime();
+    RuntimeMetrics.addParseNanos(end - start);
+    FlightEvents.end(phase);
 
     // Stop if there was a syntax error.
-    if (hadError) {
-      return;
+    if (diagnostics.hadError) {
+      return null;
     }
 
-    Resolver resolver = new Resolver(interpreter);
+    phase = FlightEvents.beginPhase("resolve");
+    start = end;
+    Resolver resolver = new Resolver(diagnostics);
     resolver.resolve(statements);
+    end = System.nanoTime();
+    RuntimeMetrics.addResolveNanos(end - start);
+    FlightEvents.end(phase);
+
+    if (diagnostics.hadError) {
+      return null; // resolve error
+    }
+
+    if (wholeProgram) {
+      new TypeInference().infer(statements);
+      new Inliner().inline(statements);
+    }
 
-    if (hadError) {
-      return; // resolve error
+    // Coverage needs every statement numbered before it can run.
+    if (interpreter.coverage != null) {
+      interpreter.coverage.instrument(statements);
     }
 
+    phase = FlightEvents.beginPhase("execute");
+    start = end;
     interpreter.interpret(statements);
+    RuntimeMetrics.addExecuteNanos(System.nanoTime() - start);
+    FlightEvents.end(phase);
+    return statements;
     // System.out.println(new AstPrinter().print(expression));
 
     //    // For now, just print the tokens.
@@ -77,26 +405,4 @@ public class Lox {
     //      System.out.println(token);
     //    }
   }
-
-  static void error(int line, String message) {
-    report(line, "", message);
-  }
-
-  static void error(Token token, String message) {
-    if (token.type == TokenType.EOF) {
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
-    }
-  }
-
-  private static void report(int line, String where, String message) {
-    System.err.println("[line " + line + "] Error" + where + ": " + message);
-    hadError = true;
-  }
-
-  static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-    hadRuntimeError = true;
-  }
 }
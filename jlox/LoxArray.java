@@ -0,0 +1,111 @@
+package jlox;
+
+import java.util.Arrays;
+
+/**
+ * Growable array behind the {@code array()} native. While every element is a number they are
+ * kept unboxed in a double[]; the first element of any other type moves them to an Object[] for
+ * good. Either way an element costs one slot, not an object per entry.
+ */
+class LoxArray {
+  private static final int INITIAL_CAPACITY = 8;
+
+  // Exactly one of these is non-null.
+  private double[] numbers = new double[INITIAL_CAPACITY];
+  private Object[] objects = null;
+  private int size = 0;
+
+  int length() {
+    return size;
+  }
+
+  Object get(Object index) {
+    int i = checkIndex(index);
+    return numbers != null ? (Object) numbers[i] : objects[i];
+  }
+
+  void set(Object index, Object value) {
+    int i = checkIndex(index);
+    if (numbers != null) {
+      if (Numbers.isNumber(value)) {
+        numbers[i] = Numbers.toDouble(value);
+        return;
+      }
+      box();
+    }
+    objects[i] = value;
+  }
+
+  void push(Object value) {
+    if (numbers != null && !Numbers.isNumber(value)) {
+      box();
+    }
+    if (numbers != null) {
+      if (size == numbers.length) {
+        numbers = Arrays.copyOf(numbers, size * 2);
+      }
+      numbers[size++] = Numbers.toDouble(value);
+    } else {
+      if (size == objects.length) {
+        objects = Arrays.copyOf(objects, size * 2);
+      }
+      objects[size++] = value;
+    }
+  }
+
+  // Sorts numbers ascending or strings lexicographically, in place.
+  void sort() {
+    if (numbers != null) {
+      Arrays.sort(numbers, 0, size);
+      return;
+    }
+    for (int i = 0; i < size; i++) {
+      if (!(objects[i] instanceof String)) {
+        throw new NativeError("Can only sort arrays of numbers or of strings.");
+      }
+    }
+    Arrays.sort(objects, 0, size);
+  }
+
+  private int checkIndex(Object index) {
+    if (index instanceof Long) {
+      long i = (long) index;
+      if (i < 0 || i >= size) {
+        throw new NativeError("Array index " + i + " out of bounds for length " + size + ".");
+      }
+      return (int) i;
+    }
+    if (!(index instanceof Double)) {
+      throw new NativeError("Array index must be a number.");
+    }
+    double value = (double) index;
+    int i = (int) value;
+    if (i != value) {
+      throw new NativeError("Array index must be an integer.");
+    }
+    if (i < 0 || i >= size) {
+      throw new NativeError("Array index " + i + " out of bounds for length " + size + ".");
+    }
+    return i;
+  }
+
+  private void box() {
+    objects = new Object[numbers.length];
+    for (int i = 0; i < size; i++) {
+      objects[i] = numbers[i];
+    }
+    numbers = null;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        text.append(", ");
+      }
+      text.append(Interpreter.stringify(numbers != null ? (Object) numbers[i] : objects[i]));
+    }
+    return text.append("]").toString();
+  }
+}
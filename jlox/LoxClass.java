@@ -1,5 +1,6 @@
 package jlox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -8,6 +9,10 @@ class LoxClass implements LoxCallable {
   final LoxClass superclass;
   private final Map<String, LoxFunction> methods;
 
+  // Results of findMethod, inherited methods and misses included. A class's methods and
+  // superclass never change after it is declared, so entries never go stale.
+  private final Map<String, LoxFunction> lookupCache = new HashMap<>();
+
   LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
     this.name = name;
     this.superclass = superclass;
@@ -15,12 +20,25 @@ class LoxClass implements LoxCallable {
   }
 
   LoxFunction findMethod(String name) {
+    LoxFunction method = lookupCache.get(name);
+    if (method != null || lookupCache.containsKey(name)) {
+      RuntimeMetrics.countMethodLookup(true);
+      return method;
+    }
+
+    RuntimeMetrics.countMethodLookup(false);
+    method = lookUpMethod(name);
+    lookupCache.put(name, method);
+    return method;
+  }
+
+  private LoxFunction lookUpMethod(String name) {
     if (methods.containsKey(name)) {
       return methods.get(name);
     }
 
     if (superclass != null) {
-      return superclass.findMethod(name);
+      return superclass.lookUpMethod(name);
     }
 
     return null;
@@ -33,10 +51,21 @@ class LoxClass implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
+    FlightEvents.Instantiation event = null;
+    if (FlightEvents.instantiationEnabled()) {
+      event = new FlightEvents.Instantiation();
+      event.className = name;
+      event.begin();
+    }
+
     LoxInstance instance = new LoxInstance(this);
     LoxFunction initializer = findMethod("init");
-    if (initializer != null) {
-      initializer.bind(instance).call(interpreter, arguments);
+    try {
+      if (initializer != null) {
+        initializer.bind(instance).call(interpreter, arguments);
+      }
+    } finally {
+      FlightEvents.end(event);
     }
     return instance;
   }
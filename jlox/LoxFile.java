@@ -0,0 +1,279 @@
+package jlox;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A file opened by the {@code openFile()} native. The file is memory-mapped a region at a time, as
+ * the reads reach it. Only the lines and byte ranges a script asks for are copied onto the heap,
+ * so files far larger than the heap can be read. Text is decoded as UTF-8.
+ */
+class LoxFile {
+  // A single mapping can't exceed 2 GB, so larger files are mapped as several regions.
+  private static final int REGION_BITS = 30;
+  private static final long REGION_MASK = (1L << REGION_BITS) - 1;
+  // The largest array the JVM will reliably allocate.
+  private static final int MAX_STRING_BYTES = Integer.MAX_VALUE - 8;
+  // Exact powers of ten for the number fast path.
+  private static final double[] POWERS_OF_TEN = new double[23];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private final String path;
+  private final long size;
+  private FileChannel channel;
+  private final MappedByteBuffer[] regions;
+  // Where the next line starts, and its 1-based number.
+  private long position = 0;
+  private long line = 1;
+
+  LoxFile(String path) {
+    this.path = path;
+    try {
+      channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+      size = channel.size();
+    } catch (IOException | RuntimeException e) {
+      throw new NativeError("Could not open file '" + path + "'.");
+    }
+    regions = new MappedByteBuffer[(int) ((size + REGION_MASK) >>> REGION_BITS)];
+  }
+
+  long size() {
+    return size;
+  }
+
+  /** Returns the next line without its terminator, or nil at the end of the file. */
+  String readLine() {
+    checkOpen();
+    if (position >= size) {
+      return null;
+    }
+    long start = position;
+    long end = lineEnd(start);
+    long textEnd = trimCarriageReturn(start, end);
+    checkSpan(start, textEnd);
+    position = end < size ? end + 1 : end;
+    line++;
+    return decode(start, textEnd);
+  }
+
+  /** Decodes the bytes in [offset, offset + length), clipped to the end of the file. */
+  String readBytes(Object offset, Object length) {
+    checkOpen();
+    long start = checkCount(offset, "offset");
+    long count = checkCount(length, "length");
+    if (start >= size) {
+      return "";
+    }
+    long end = start + Math.min(size - start, count);
+    checkSpan(start, end);
+    return decode(start, end);
+  }
+
+  /**
+   * Parses one separator-delimited field of each remaining line as a number, so a header can be
+   * skipped with readLine() first. Fields are parsed straight from the mapped bytes; blank lines
+   * are skipped. Leaves the file at its end.
+   */
+  LoxArray parseColumn(Object column, Object separator) {
+    checkOpen();
+    long index = checkCount(column, "column");
+    // Lines are split on raw bytes, so the separator must be a character that is one byte in UTF-8.
+    if (!(separator instanceof String)
+        || ((String) separator).length() != 1
+        || ((String) separator).charAt(0) > 0x7F) {
+      throw new NativeError("Separator must be a one-character ASCII string.");
+    }
+    byte delimiter = (byte) ((String) separator).charAt(0);
+
+    LoxArray numbers = new LoxArray();
+    for (long start = position; start < size; line++) {
+      long end = lineEnd(start);
+      long lineEnd = trimCarriageReturn(start, end);
+      if (lineEnd > start) {
+        long fieldStart = start;
+        for (long field = 0; field < index && fieldStart <= lineEnd; field++) {
+          while (fieldStart < lineEnd && byteAt(fieldStart) != delimiter) {
+            fieldStart++;
+          }
+          fieldStart++;
+        }
+        if (fieldStart > lineEnd) {
+          throw new NativeError("Line " + line + " has no column " + index + ".");
+        }
+        long fieldEnd = fieldStart;
+        while (fieldEnd < lineEnd && byteAt(fieldEnd) != delimiter) {
+          fieldEnd++;
+        }
+        numbers.push(parseNumber(fieldStart, fieldEnd, line));
+      }
+      start = end + 1;
+      position = Math.min(start, size);
+    }
+    return numbers;
+  }
+
+  void close() {
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      throw new NativeError("Could not close file '" + path + "'.");
+    } finally {
+      // The mappings are released once they're unreachable.
+      channel = null;
+      Arrays.fill(regions, null);
+    }
+  }
+
+  // Fields follow the scanner's grammar for number literals, digits with an optional fraction,
+  // plus an optional sign, a decimal exponent as data files often have, and surrounding spaces.
+  // Those with at most 15 significant digits and 22 fraction digits are exact as a long divided by
+  // a power of ten, which a single division rounds correctly. Longer ones go through
+  // Double.parseDouble, as the scanner does for literals.
+  private double parseNumber(long start, long end, long line) {
+    while (start < end && byteAt(start) == ' ') {
+      start++;
+    }
+    while (end > start && byteAt(end - 1) == ' ') {
+      end--;
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = -1;
+    boolean negative = false;
+    long i = start;
+    if (i < end && (byteAt(i) == '-' || byteAt(i) == '+')) {
+      negative = byteAt(i) == '-';
+      i++;
+    }
+    for (; i < end; i++) {
+      byte b = byteAt(i);
+      if (b >= '0' && b <= '9') {
+        mantissa = digits < 18 ? mantissa * 10 + (b - '0') : mantissa;
+        digits++;
+        if (fractionDigits >= 0) {
+          fractionDigits++;
+        }
+      } else if (b == '.' && fractionDigits < 0 && digits > 0) {
+        fractionDigits = 0;
+      } else {
+        break;
+      }
+    }
+    boolean exponent = false;
+    if (i < end && (byteAt(i) == 'e' || byteAt(i) == 'E') && digits > 0 && fractionDigits != 0) {
+      exponent = true;
+      i++;
+      if (i < end && (byteAt(i) == '-' || byteAt(i) == '+')) {
+        i++;
+      }
+      long exponentStart = i;
+      while (i < end && byteAt(i) >= '0' && byteAt(i) <= '9') {
+        i++;
+      }
+      if (i == exponentStart) {
+        throw notANumber(start, end, line);
+      }
+    }
+    if (i != end || digits == 0 || fractionDigits == 0) {
+      throw notANumber(start, end, line);
+    }
+
+    if (!exponent && digits <= 15 && fractionDigits <= 22) {
+      double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+      return negative ? -value : value;
+    }
+    return Double.parseDouble(decode(start, end));
+  }
+
+  private NativeError notANumber(long start, long end, long line) {
+    return new NativeError("Line " + line + ": '" + decode(start, end) + "' is not a number.");
+  }
+
+  private long lineEnd(long start) {
+    long end = start;
+    while (end < size && byteAt(end) != '\n') {
+      end++;
+    }
+    return end;
+  }
+
+  private long trimCarriageReturn(long start, long end) {
+    return end > start && byteAt(end - 1) == '\r' ? end - 1 : end;
+  }
+
+  // Callers check the span first.
+  private String decode(long start, long end) {
+    byte[] bytes = new byte[(int) (end - start)];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = byteAt(start + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private byte byteAt(long offset) {
+    int index = (int) (offset >>> REGION_BITS);
+    MappedByteBuffer region = regions[index];
+    if (region == null) {
+      region = map(index);
+    }
+    return region.get((int) (offset & REGION_MASK));
+  }
+
+  private MappedByteBuffer map(int index) {
+    long start = (long) index << REGION_BITS;
+    try {
+      long length = Math.min(size - start, 1L << REGION_BITS);
+      regions[index] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    } catch (IOException e) {
+      throw new NativeError("Could not read file '" + path + "'.");
+    }
+    return regions[index];
+  }
+
+  // A string is backed by one array, so the file can be read in ranges no longer than that.
+  private static void checkSpan(long start, long end) {
+    if (end - start > MAX_STRING_BYTES) {
+      throw new NativeError(
+          "Can't read " + (end - start) + " bytes into one string; the limit is "
+              + MAX_STRING_BYTES + ".");
+    }
+  }
+
+  private void checkOpen() {
+    if (channel == null) {
+      throw new NativeError("File '" + path + "' is closed.");
+    }
+  }
+
+  private static long checkCount(Object value, String what) {
+    if (value instanceof Long && (long) value >= 0) {
+      return (long) value;
+    }
+    if (!(value instanceof Double)
+        || (double) value < 0
+        || (double) value != Math.floor((double) value)) {
+      throw new NativeError("File " + what + " must be a non-negative integer.");
+    }
+    return (long) (double) value;
+  }
+
+  @Override
+  public String toString() {
+    return "<file " + path + ">";
+  }
+}
@@ -3,36 +3,57 @@ package jlox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
-  private final Stmt.Function declaration;
-  private final Environment closure;
+  final Stmt.Function declaration;
+  private final Cell[] upvalues;
+  // The instance a method is bound to; null for plain functions.
+  private final LoxInstance receiver;
   private final boolean isInitializer;
 
-  LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+  LoxFunction(
+      Stmt.Function declaration, Cell[] upvalues, LoxInstance receiver, boolean isInitializer) {
     this.declaration = declaration;
-    this.closure = closure;
+    this.upvalues = upvalues;
+    this.receiver = receiver;
     this.isInitializer = isInitializer;
   }
 
   LoxFunction bind(LoxInstance instance) {
-    Environment environment = new Environment(closure);
-    environment.define("this", instance);
-    return new LoxFunction(declaration, environment, isInitializer);
+    return new LoxFunction(declaration, upvalues, instance, isInitializer);
   }
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
-    Environment env = new Environment(closure);
-    for (int i = 0; i < declaration.params.size(); i++) {
-      env.define(declaration.params.get(i).lexeme, arguments.get(i));
+    Environment env = new Environment(declaration.slots);
+    if (declaration.receiver != null) {
+      env.define(declaration.receiver, receiver);
+    }
+    for (int i = 0; i < declaration.parameters.size(); i++) {
+      env.define(declaration.parameters.get(i), arguments.get(i));
     }
 
+    Profiler profiler = interpreter.profiler;
+    if (profiler != null) {
+      profiler.enter(declaration);
+    }
+    FlightEvents.Call event = null;
+    if (FlightEvents.callEnabled()) {
+      event = new FlightEvents.Call();
+      event.function = declaration.name.lexeme;
+      event.line = declaration.line;
+      event.begin();
+    }
     try {
-      interpreter.executeBlock(declaration.body, env);
+      interpreter.executeBody(declaration.body, env, upvalues);
     } catch (Return returnvalue) {
       if (isInitializer) {
-        return closure.getAt(0, "this");
+        return receiver;
       }
       return returnvalue.value;
+    } finally {
+      if (profiler != null) {
+        profiler.exit();
+      }
+      FlightEvents.end(event);
     }
     return null;
   }
@@ -9,6 +9,7 @@ class LoxInstance {
 
   LoxInstance(LoxClass klass) {
     this.klass = klass;
+    RuntimeMetrics.countInstance();
   }
 
   Object get(Token name) {
@@ -24,6 +25,11 @@ class LoxInstance {
     throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
   }
 
+  /** The unbound method a property names, or null if there is none or a field shadows it. */
+  LoxFunction findMethod(String name) {
+    return fields.containsKey(name) ? null : klass.findMethod(name);
+  }
+
   void set(Token name, Object value) {
     fields.put(name.lexeme, value);
   }
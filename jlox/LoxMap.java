@@ -0,0 +1,181 @@
+package jlox;
+
+/**
+ * Hash map behind the {@code map()} native. Keys compare the way Lox's == does: numbers and
+ * strings by value, everything else by identity. The table uses open addressing with linear
+ * probing over parallel arrays of keys, values and hashes. A lookup hashes once, then scans
+ * adjacent slots and only looks at a key object when its stored hash matches.
+ */
+class LoxMap {
+  // Stands in for a nil key, since a null key marks an empty slot. Number keys are stored as
+  // Doubles, so that 1 and 1.0 are the same key whichever representation they arrive in.
+  private static final Object NIL = new Object();
+  private static final int INITIAL_CAPACITY = 16;
+
+  private Object[] keys = new Object[INITIAL_CAPACITY];
+  private Object[] values = new Object[INITIAL_CAPACITY];
+  private int[] hashes = new int[INITIAL_CAPACITY];
+  // A hash's top bits select its home slot: hash >>> shift is below the capacity.
+  private int shift = Integer.numberOfLeadingZeros(INITIAL_CAPACITY - 1);
+  private int size = 0;
+  // Grow when the table is two-thirds full; longer probe runs cost more than the memory saved.
+  private int threshold = INITIAL_CAPACITY * 2 / 3;
+
+  int size() {
+    return size;
+  }
+
+  /** Returns the value for the key, or nil if there is none. */
+  Object get(Object key) {
+    int slot = find(key(key));
+    return slot < 0 ? null : values[slot];
+  }
+
+  boolean has(Object key) {
+    return find(key(key)) >= 0;
+  }
+
+  void put(Object key, Object value) {
+    key = key(key);
+    int hash = hash(key);
+    int mask = keys.length - 1;
+    int slot = hash >>> shift;
+    while (keys[slot] != null) {
+      if (hashes[slot] == hash && keys[slot].equals(key)) {
+        values[slot] = value;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    hashes[slot] = hash;
+    if (++size > threshold) {
+      resize(keys.length * 2);
+    }
+  }
+
+  void putAll(LoxMap other) {
+    if (other == this) {
+      return;
+    }
+    // Grow once up front rather than repeatedly while copying.
+    int needed = size + other.size;
+    if (needed > threshold) {
+      int capacity = keys.length;
+      while (needed > capacity * 2 / 3) {
+        capacity *= 2;
+      }
+      resize(capacity);
+    }
+    for (int i = 0; i < other.keys.length; i++) {
+      if (other.keys[i] != null) {
+        put(other.keys[i], other.values[i]);
+      }
+    }
+  }
+
+  /** Removes the key and returns its value, or nil if it wasn't there. */
+  Object remove(Object key) {
+    int slot = find(key(key));
+    if (slot < 0) {
+      return null;
+    }
+    Object value = values[slot];
+
+    // Shift later entries of the probe run back so that no lookup stops early at the hole.
+    int mask = keys.length - 1;
+    int hole = slot;
+    for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+      int home = hashes[next] >>> shift;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        keys[hole] = keys[next];
+        values[hole] = values[next];
+        hashes[hole] = hashes[next];
+        hole = next;
+      }
+    }
+    keys[hole] = null;
+    values[hole] = null;
+    size--;
+    return value;
+  }
+
+  /** The keys in table order, for iterating over the map. */
+  LoxArray keys() {
+    LoxArray result = new LoxArray();
+    for (Object key : keys) {
+      if (key != null) {
+        result.push(key == NIL ? null : key);
+      }
+    }
+    return result;
+  }
+
+  private static Object key(Object key) {
+    if (key == null) {
+      return NIL;
+    }
+    return key instanceof Long ? (Object) (double) (long) key : key;
+  }
+
+  private int find(Object key) {
+    int hash = hash(key);
+    int mask = keys.length - 1;
+    int slot = hash >>> shift;
+    while (keys[slot] != null) {
+      if (hashes[slot] == hash && keys[slot].equals(key)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  // Fibonacci hashing on all 64 bits of a number, since Double.hashCode folds the bits that vary
+  // between small integers into a few high ones.
+  private static int hash(Object key) {
+    long bits = key instanceof Double ? Double.doubleToLongBits((double) key) : key.hashCode();
+    return (int) ((bits * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  // Stored hashes make this a pass over three arrays without touching any key.
+  private void resize(int capacity) {
+    Object[] oldKeys = keys;
+    Object[] oldValues = values;
+    int[] oldHashes = hashes;
+    keys = new Object[capacity];
+    values = new Object[capacity];
+    hashes = new int[capacity];
+    shift = Integer.numberOfLeadingZeros(capacity - 1);
+    threshold = capacity * 2 / 3;
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null) {
+        int slot = oldHashes[i] >>> shift;
+        while (keys[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+        hashes[slot] = oldHashes[i];
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder("{");
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) {
+        if (text.length() > 1) {
+          text.append(", ");
+        }
+        text.append(Interpreter.stringify(keys[i] == NIL ? null : keys[i]))
+            .append(": ")
+            .append(Interpreter.stringify(values[i]));
+      }
+    }
+    return text.append("}").toString();
+  }
+}
@@ -0,0 +1,11 @@
+package jlox;
+
+/**
+ * Thrown by a native function that was called with bad arguments. Natives don't know the call
+ * site, so the interpreter turns this into a {@link RuntimeError} at the call's parenthesis.
+ */
+class NativeError extends RuntimeException {
+  NativeError(String message) {
+    super(message, null, false, false);
+  }
+}
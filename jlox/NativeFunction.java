@@ -0,0 +1,33 @@
+package jlox;
+
+import java.util.List;
+
+/** A global function implemented in Java. */
+class NativeFunction implements LoxCallable {
+  interface Body {
+    Object call(List<Object> arguments);
+  }
+
+  private final int arity;
+  private final Body body;
+
+  NativeFunction(int arity, Body body) {
+    this.arity = arity;
+    this.body = body;
+  }
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return body.call(arguments);
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn>";
+  }
+}
@@ -0,0 +1,53 @@
+package jlox;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Formats Lox numbers as print always has: Double.toString without a trailing ".0". Integral
+ * values below 10^7, which is what most scripts print, are written digit by digit instead of
+ * going through Double.toString and trimming the result.
+ */
+final class NumberFormatter {
+  // Double.toString switches to scientific notation at 10^7.
+  private static final double PLAIN_LIMIT = 1e7;
+
+  private NumberFormatter() {}
+
+  static String format(double value) {
+    if (isPlainIntegral(value)) {
+      return isNegativeZero(value) ? "-0" : Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  /** Writes the number to `out`, using `scratch` (at least 8 chars) instead of a new string. */
+  static void write(double value, Writer out, char[] scratch) throws IOException {
+    if (!isPlainIntegral(value)) {
+      out.write(Double.toString(value));
+      return;
+    }
+
+    long digits = (long) value;
+    boolean negative = digits < 0 || isNegativeZero(value);
+    digits = Math.abs(digits);
+    int start = scratch.length;
+    do {
+      scratch[--start] = (char) ('0' + digits % 10);
+      digits /= 10;
+    } while (digits != 0);
+    if (negative) {
+      scratch[--start] = '-';
+    }
+    out.write(scratch, start, scratch.length - start);
+  }
+
+  // True for the values Double.toString writes as "<digits>.0". Anything else never ends in ".0".
+  private static boolean isPlainIntegral(double value) {
+    return value == (long) value && Math.abs(value) < PLAIN_LIMIT;
+  }
+
+  private static boolean isNegativeZero(double value) {
+    return value == 0 && Double.doubleToRawLongBits(value) != 0;
+  }
+}
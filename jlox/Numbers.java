@@ -0,0 +1,87 @@
+package jlox;
+
+/**
+ * Lox has one number type, a double, but the interpreter represents integral values as Long where
+ * it can. Integer literals start out as Long, and arithmetic on two Longs stays Long while the
+ * result is integral and within ±2^53. Division, a double operand or a result outside that range
+ * produces a Double, exactly the double that the same operation on doubles would give.
+ *
+ * <p>Within ±2^53 every long is exactly a double, so the two representations are interchangeable:
+ * equality, comparison and printing look only at the number's value. A Long is never -0, which
+ * exists only as a Double.
+ */
+final class Numbers {
+  static final long MAX_INTEGER = 1L << 53;
+  // Factors below this multiply to less than 2^53.
+  private static final long MAX_FACTOR = 1L << 26;
+
+  private Numbers() {}
+
+  static boolean isNumber(Object value) {
+    return value instanceof Double || value instanceof Long;
+  }
+
+  /** Only valid when {@link #isNumber} is true. */
+  static double toDouble(Object value) {
+    return value instanceof Long ? (double) (long) value : (double) value;
+  }
+
+  /** The representation for a literal: a Long if it is integral and in range. */
+  static Object literal(double value) {
+    long integer = (long) value;
+    if (integer == value && Math.abs(integer) <= MAX_INTEGER && !isNegativeZero(value)) {
+      return integer;
+    }
+    return value;
+  }
+
+  static Object add(long left, long right) {
+    return fromLong(left + right);
+  }
+
+  static Object subtract(long left, long right) {
+    return fromLong(left - right);
+  }
+
+  static Object multiply(long left, long right) {
+    if (Math.abs(left) < MAX_FACTOR && Math.abs(right) < MAX_FACTOR) {
+      long product = left * right;
+      // A zero product with a negative factor is -0 in double arithmetic.
+      if (product == 0 && (left < 0 || right < 0)) {
+        return -0.0;
+      }
+      return product;
+    }
+    // Both factors are exact as doubles, so this is the correctly rounded product.
+    double product = (double) left * (double) right;
+    if (product != 0 && Math.abs(product) <= MAX_INTEGER) {
+      return (long) product;
+    }
+    return product;
+  }
+
+  static Object negate(long value) {
+    return value == 0 ? (Object) (-0.0) : (Object) (-value);
+  }
+
+  /** Lox's == on two numbers: by value, with -0 distinct from 0 and NaN equal to itself. */
+  static boolean equal(Object left, Object right) {
+    if (left instanceof Long && right instanceof Long) {
+      return (long) left == (long) right;
+    }
+    return Double.doubleToLongBits(toDouble(left)) == Double.doubleToLongBits(toDouble(right));
+  }
+
+  // Sums and differences of two values within ±2^53 can't overflow a long; rounding the exact
+  // result to a double gives the same double that adding the doubles would.
+  private static Object fromLong(long value) {
+    if (Math.abs(value) <= MAX_INTEGER) {
+      return value;
+    }
+    return (double) value;
+  }
+
+  private static boolean isNegativeZero(double value) {
+    return value == 0 && Double.doubleToRawLongBits(value) != 0;
+  }
+}
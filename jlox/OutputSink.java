@@ -0,0 +1,12 @@
+package jlox;
+
+/**
+ * Receives the values of print statements. The interpreter calls {@link #flush} when a run ends,
+ * normally or with an error. Embedders can install their own sink to get values as they are
+ * rather than as text.
+ */
+interface OutputSink {
+  void print(Object value);
+
+  default void flush() {}
+}
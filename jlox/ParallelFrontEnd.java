@@ -0,0 +1,94 @@
+package jlox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Scans and parses independent pieces of source on a fork-join pool. Large sources are cut at
+ * top-level declaration boundaries, whole files are handled side by side, and results are stitched
+ * back together in source order. Each piece reports into its own buffered {@link Diagnostics},
+ * which are replayed in order afterwards, so output never depends on scheduling.
+ */
+class ParallelFrontEnd {
+  // Pieces are cut at a fixed size rather than per core, so the same source always splits the
+  // same way and reports the same diagnostics.
+  static final int CHUNK_SIZE = 256 * 1024;
+
+  private final ForkJoinPool pool;
+
+  ParallelFrontEnd(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /** Scans and parses one source, cutting it into pieces if it is larger than a chunk. */
+  List<Stmt> parse(String source, Diagnostics diagnostics) {
+    return pool.invoke(ForkJoinTask.adapt(() -> parseSplit(source, diagnostics)));
+  }
+
+  /**
+   * Scans, parses and resolves every file. Errors are reported per file, in the order the files
+   * were given.
+   */
+  void check(List<String> paths, Diagnostics diagnostics) {
+    List<ForkJoinTask<Diagnostics>> tasks = new ArrayList<>();
+    for (String path : paths) {
+      tasks.add(ForkJoinTask.adapt(() -> checkFile(path)));
+    }
+    pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+    for (int i = 0; i < paths.size(); i++) {
+      tasks.get(i).join().replayInto(diagnostics, paths.get(i) + ": ");
+    }
+  }
+
+  private static Diagnostics checkFile(String path) {
+    Diagnostics diagnostics = Diagnostics.buffered();
+    String source;
+    try {
+      source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+    } catch (IOException error) {
+      diagnostics.error("Could not read '" + path + "'.");
+      return diagnostics;
+    }
+
+    List<Stmt> statements = parseSplit(source, diagnostics);
+    if (!diagnostics.hadError) {
+      new Resolver(diagnostics).resolve(statements);
+    }
+    return diagnostics;
+  }
+
+  private static List<Stmt> parseSplit(String source, Diagnostics diagnostics) {
+    List<SourceSplitter.Piece> pieces = SourceSplitter.split(source, CHUNK_SIZE);
+    if (pieces.size() == 1) {
+      return parsePiece(pieces.get(0), diagnostics);
+    }
+
+    List<Diagnostics> reports = new ArrayList<>();
+    List<ForkJoinTask<List<Stmt>>> tasks = new ArrayList<>();
+    for (SourceSplitter.Piece piece : pieces) {
+      Diagnostics report = Diagnostics.buffered();
+      reports.add(report);
+      tasks.add(ForkJoinTask.adapt(() -> parsePiece(piece, report)));
+    }
+    ForkJoinTask.invokeAll(tasks);
+
+    List<Stmt> statements = new ArrayList<>();
+    for (int i = 0; i < pieces.size(); i++) {
+      statements.addAll(tasks.get(i).join());
+      reports.get(i).replayInto(diagnostics, "");
+    }
+    return statements;
+  }
+
+  private static List<Stmt> parsePiece(SourceSplitter.Piece piece, Diagnostics diagnostics) {
+    TokenBuffer tokens = TokenBuffer.scan(piece.text, piece.line, diagnostics);
+    return new Parser(tokens.stream(), diagnostics).parse();
+  }
+}
@@ -9,11 +9,12 @@ import java.util.List;
 class Parser {
   private static class ParseError extends RuntimeException {}
 
-  private final List<Token> tokens;
-  private int current = 0;
+  private final TokenStream tokens;
+  private final Diagnostics diagnostics;
 
-  Parser(List<Token> tokens) {
+  Parser(TokenStream tokens, Diagnostics diagnostics) {
     this.tokens = tokens;
+    this.diagnostics = diagnostics;
   }
 
   List<Stmt> parse() {
@@ -26,7 +27,7 @@ class Parser {
   }
 
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    diagnostics.error(token, message);
     return new ParseError();
   }
 
@@ -69,7 +70,7 @@ class Parser {
 
     consume(RIGHT_BRACE, "Expect '}' after class body.");
 
-    return new Stmt.Class(name, superclass, methods);
+    return at(name.line(), new Stmt.Class(name, superclass, methods));
   }
 
   private Stmt.Function function(String kind) {
@@ -91,7 +92,7 @@ class Parser {
     consume(LEFT_BRACE, "Expect '{' after .");
     List<Stmt> body = block();
 
-    return new Stmt.Function(name, parameters, body);
+    return at(name.line(), new Stmt.Function(name, parameters, body));
   }
 
   private Stmt varDeclaration() {
@@ -103,32 +104,39 @@ class Parser {
     }
 
     consume(SEMICOLON, "Expect ';' after variable declaration.");
-    return new Stmt.Var(name, initializer);
+    return at(name.line(), new Stmt.Var(name, initializer));
   }
 
   private Stmt statement() {
+    int line = peek().line();
     if (match(FOR)) {
-      return forStatement();
+      return forStatement(line);
     }
     if (match(IF)) {
-      return ifStatement();
+      return at(line, ifStatement());
     }
     if (match(PRINT)) {
-      return printStatement();
+      return at(line, printStatement());
     }
     if (match(RETURN)) {
-      return returnStatement();
+      return at(line, returnStatement());
     }
     if (match(WHILE)) {
-      return whileStatement();
+      return at(line, whileStatement());
     }
     if (match(LEFT_BRACE)) {
-      return new Stmt.Block(block());
+      return at(line, new Stmt.Block(block()));
     }
-    return expressionStatement();
+    return at(line, expressionStatement());
   }
 
-  private Stmt forStatement() {
+  // Records the line a statement starts on, for runtime tools such as the profiler.
+  private static <T extends Stmt> T at(int line, T stmt) {
+    stmt.line = line;
+    return stmt;
+  }
+
+  private Stmt forStatement(int line) {
     consume(LEFT_PAREN, "Expect '(' after 'for'.");
     // init
     Stmt initializer;
@@ -157,17 +165,18 @@ class Parser {
     Stmt body = statement();
 
     if (increment != null) {
-      body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
+      body =
+          at(line, new Stmt.Block(Arrays.asList(body, at(line, new Stmt.Expression(increment)))));
     }
 
     if (condition == null) {
       condition = new Expr.Literal(true);
     }
 
-    body = new Stmt.While(condition, body);
+    body = at(line, new Stmt.While(condition, body));
 
     if (initializer != null) {
-      body = new Stmt.Block(Arrays.asList(initializer, body));
+      body = at(line, new Stmt.Block(Arrays.asList(initializer, body)));
     }
 
     return body;
@@ -311,7 +320,7 @@ class Parser {
   private Expr factor() {
     Expr expr = unary();
 
-    while (match(MINUS, PLUS)) {
+    while (match(SLASH, STAR)) {
       Token operator = previous();
       Expr right = unary();
       expr = new Expr.Binary(expr, operator, right);
@@ -375,7 +384,10 @@ class Parser {
     if (match(NIL)) {
       return new Expr.Literal(null);
     }
-    if (match(NUMBER, STRING)) {
+    if (match(NUMBER)) {
+      return new Expr.Literal(Numbers.literal((double) previous().literal));
+    }
+    if (match(STRING)) {
       return new Expr.Literal(previous().literal);
     }
     if (match(SUPER)) {
@@ -401,7 +413,8 @@ class Parser {
 
   private Token consume(TokenType type, String message) {
     if (check(type)) {
-      return advance();
+      advance();
+      return previous();
     }
 
     throw error(peek(), message);
@@ -422,26 +435,23 @@ class Parser {
     if (isAtEnd()) {
       return false;
     }
-    return peek().type == type;
+    return tokens.peekType() == type;
   }
 
-  private Token advance() {
-    if (!isAtEnd()) {
-      current += 1;
-    }
-    return previous();
+  private void advance() {
+    tokens.advance();
   }
 
   private boolean isAtEnd() {
-    return peek().type == EOF;
+    return tokens.peekType() == EOF;
   }
 
   private Token peek() {
-    return tokens.get(current);
+    return tokens.peek();
   }
 
   private Token previous() {
-    return tokens.get(current - 1);
+    return tokens.previous();
   }
 
   private void synchronize() {
@@ -452,7 +462,7 @@ class Parser {
         return;
       }
 
-      switch (peek().type) {
+      switch (tokens.peekType()) {
         case CLASS:
         case FUN:
         case VAR:
@@ -0,0 +1,205 @@
+package jlox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lox-level profiler behind {@code jlox --profile}. The interpreter reports every statement it
+ * starts and every {@link LoxFunction} call it enters and leaves. The time between two such events
+ * is charged to the current line and to the current node of a call tree. That takes one clock
+ * read per event and no allocation except the first time a call path is seen.
+ *
+ * <p>Function totals are summed from the tree when the report is written. Inclusive time counts
+ * only the outermost activation of a recursive function, so it is never more than the wall time.
+ */
+class Profiler {
+  private static class Function {
+    final String name;
+    long calls = 0;
+    long inclusiveNanos = 0;
+    long selfNanos = 0;
+    int active = 0;
+    long outermostStart = 0;
+
+    Function(String name) {
+      this.name = name;
+    }
+  }
+
+  private static class Node {
+    final Function function;
+    final Node parent;
+    final Map<Stmt.Function, Node> children = new HashMap<>(4);
+    long selfNanos = 0;
+    int returnLine = 0;
+
+    Node(Function function, Node parent) {
+      this.function = function;
+      this.parent = parent;
+    }
+  }
+
+  private final Map<Stmt.Function, Function> functions = new HashMap<>();
+  private final Node root = new Node(new Function("<script>"), null);
+  private final long startNanos;
+  private Node current = root;
+  private int line = 0;
+  private long mark;
+  private long[] lineNanos = new long[256];
+  private long[] lineHits = new long[256];
+
+  Profiler() {
+    startNanos = System.nanoTime();
+    mark = startNanos;
+  }
+
+  void statement(Stmt stmt) {
+    long now = System.nanoTime();
+    charge(now);
+    line = stmt.line;
+    if (line >= lineHits.length) {
+      int size = Math.max(line + 1, lineHits.length * 2);
+      lineHits = Arrays.copyOf(lineHits, size);
+      lineNanos = Arrays.copyOf(lineNanos, size);
+    }
+    lineHits[line] += 1;
+  }
+
+  void enter(Stmt.Function declaration) {
+    long now = System.nanoTime();
+    charge(now);
+
+    Node node = current.children.get(declaration);
+    if (node == null) {
+      Function function =
+          functions.computeIfAbsent(
+              declaration, key -> new Function(key.name.lexeme + ":" + key.line));
+      node = new Node(function, current);
+      current.children.put(declaration, node);
+    }
+
+    Function function = node.function;
+    function.calls += 1;
+    if (function.active++ == 0) {
+      function.outermostStart = now;
+    }
+    node.returnLine = line;
+    current = node;
+  }
+
+  void exit() {
+    long now = System.nanoTime();
+    charge(now);
+
+    Function function = current.function;
+    if (--function.active == 0) {
+      function.inclusiveNanos += now - function.outermostStart;
+    }
+    line = current.returnLine;
+    current = current.parent;
+  }
+
+  private void charge(long now) {
+    long elapsed = now - mark;
+    current.selfNanos += elapsed;
+    lineNanos[line] += elapsed;
+    mark = now;
+  }
+
+  /** Prints functions by self time and the hottest lines. */
+  void report(PrintStream out, int limit) {
+    long now = System.nanoTime();
+    charge(now);
+    long totalNanos = now - startNanos;
+
+    for (Function function : functions.values()) {
+      function.selfNanos = 0;
+    }
+    sumSelfTime(root);
+
+    List<Function> byTime = new ArrayList<>(functions.values());
+    byTime.sort((a, b) -> Long.compare(b.selfNanos, a.selfNanos));
+
+    out.printf(Locale.ROOT, "Profile: %.1f ms total%n%n", millis(totalNanos));
+    out.printf(
+        Locale.ROOT, "%12s %14s %12s %7s  %s%n", "calls", "inclusive ms", "self ms", "self%",
+        "function");
+    out.printf(
+        Locale.ROOT, "%12s %14s %12.1f %6.1f%%  %s%n", "", "", millis(root.selfNanos),
+        percent(root.selfNanos, totalNanos), root.function.name);
+    for (Function function : byTime.subList(0, Math.min(limit, byTime.size()))) {
+      out.printf(
+          Locale.ROOT,
+          "%12d %14.1f %12.1f %6.1f%%  %s%n",
+          function.calls,
+          millis(function.inclusiveNanos),
+          millis(function.selfNanos),
+          percent(function.selfNanos, totalNanos),
+          function.name);
+    }
+
+    List<Integer> lines = new ArrayList<>();
+    for (int i = 1; i < lineHits.length; i++) {
+      if (lineHits[i] > 0) {
+        lines.add(i);
+      }
+    }
+    lines.sort((a, b) -> Long.compare(lineNanos[b], lineNanos[a]));
+
+    out.printf(Locale.ROOT, "%n%12s %12s %7s  %s%n", "executed", "self ms", "self%", "line");
+    for (int i : lines.subList(0, Math.min(limit, lines.size()))) {
+      out.printf(
+          Locale.ROOT,
+          "%12d %12.1f %6.1f%%  %d%n",
+          lineHits[i],
+          millis(lineNanos[i]),
+          percent(lineNanos[i], totalNanos),
+          i);
+    }
+  }
+
+  private void sumSelfTime(Node node) {
+    node.function.selfNanos += node.selfNanos;
+    for (Node child : node.children.values()) {
+      sumSelfTime(child);
+    }
+  }
+
+  /**
+   * Writes one line per call path with its self time in microseconds, the folded format read by
+   * flamegraph.pl, speedscope and similar tools.
+   */
+  void writeFolded(Writer out) throws IOException {
+    PrintWriter writer = new PrintWriter(out);
+    writeFolded(writer, root, root.function.name);
+    writer.flush();
+  }
+
+  private void writeFolded(PrintWriter writer, Node node, String stack) {
+    long micros = node.selfNanos / 1000;
+    if (micros > 0) {
+      writer.print(stack);
+      writer.print(' ');
+      writer.println(micros);
+    }
+    for (Node child : node.children.values()) {
+      writeFolded(writer, child, stack + ";" + child.function.name);
+    }
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  private static double percent(long part, long total) {
+    return total == 0 ? 0 : 100.0 * part / total;
+  }
+}
@@ -0,0 +1,115 @@
+package jlox;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Limits on one run of {@link Interpreter#interpret}, for scripts that can't be trusted to stop:
+ * fuel, a number of loop iterations and calls; a wall-clock timeout; and an approximate cap on
+ * the bytes the running thread allocates. The interpreter calls {@link #tick} at every loop
+ * back-edge and call. A tick decrements the fuel, and only every {@link #CHECK_INTERVAL} ticks
+ * reads the clock, which costs more. The allocation counter is read on every tick while a memory
+ * limit is set: a loop that doubles a string exhausts the heap in a few dozen iterations. The
+ * same slower check notices a run that was {@link #cancel}led.
+ *
+ * <p>Without a quota the interpreter pays one null check per back-edge and call.
+ */
+class Quota {
+  private static final int CHECK_INTERVAL = 1024;
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  // Zero means no limit.
+  private final long fuelLimit;
+  private final long timeoutNanos;
+  private final long allocationLimit;
+
+  private long fuel;
+  private int untilCheck;
+  private long deadline;
+  private long allocationBase;
+  private volatile boolean cancelled = false;
+  // Line of the latest tick, where running out of heap is reported; zero before the first.
+  private int line;
+
+  Quota(long fuelLimit, long timeoutMillis, long allocationLimit) {
+    this.fuelLimit = fuelLimit;
+    this.timeoutNanos = timeoutMillis * 1_000_000;
+    this.allocationLimit = allocationLimit;
+  }
+
+  /**
+   * The limits set with -Djlox.fuel (ticks), -Djlox.timeout (milliseconds) and -Djlox.memory
+   * (bytes, with an optional k, m or g suffix), or null if none is set.
+   */
+  static Quota fromProperties() {
+    return fromProperties(0);
+  }
+
+  /**
+   * Like {@link #fromProperties()}, but with a time limit of `defaultTimeoutMillis` unless
+   * -Djlox.timeout is set. Setting it to zero turns the limit off.
+   */
+  static Quota fromProperties(long defaultTimeoutMillis) {
+    long fuel = Long.getLong("jlox.fuel", 0);
+    long timeout = Long.getLong("jlox.timeout", defaultTimeoutMillis);
+    String memory = System.getProperty("jlox.memory");
+    long allocation = memory == null ? 0 : Lox.parseSize(memory);
+    if (fuel == 0 && timeout == 0 && allocation == 0) {
+      return null;
+    }
+    return new Quota(fuel, timeout, allocation);
+  }
+
+  /** Resets the budgets. Must run on the thread that then runs the script. */
+  void start() {
+    fuel = fuelLimit > 0 ? fuelLimit : Long.MAX_VALUE;
+    untilCheck = CHECK_INTERVAL;
+    deadline = System.nanoTime() + timeoutNanos;
+    allocationBase = allocationLimit > 0 ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    line = 0;
+    cancelled = false;
+  }
+
+  /** Stops the run at its next check. Can be called from any thread. */
+  void cancel() {
+    cancelled = true;
+  }
+
+  void tick(int line) {
+    this.line = line;
+    if (--fuel < 0) {
+      throw exceeded(line, "Execution budget exceeded.");
+    }
+    if (allocationLimit > 0
+        && THREADS.getCurrentThreadAllocatedBytes() - allocationBase > allocationLimit) {
+      throw exceeded(line, "Memory limit exceeded.");
+    }
+    if (--untilCheck == 0) {
+      untilCheck = CHECK_INTERVAL;
+      if (timeoutNanos > 0 && System.nanoTime() - deadline > 0) {
+        throw exceeded(line, "Time limit exceeded.");
+      }
+      if (cancelled) {
+        throw exceeded(line, "Run cancelled.");
+      }
+    }
+  }
+
+  /**
+   * Whether running out of heap counts against this quota: a memory limit is set and the script
+   * has ticked, so there is a line to report it at.
+   */
+  boolean reportsOutOfMemory() {
+    return allocationLimit > 0 && line > 0;
+  }
+
+  /** The error for a script that ran out of heap, reported at the latest tick. */
+  RuntimeError outOfMemory() {
+    return exceeded(line, "Memory limit exceeded.");
+  }
+
+  // Loops have no token to report at, so errors carry just the line.
+  private static RuntimeError exceeded(int line, String message) {
+    return new RuntimeError(new Token(TokenType.EOF, "", null, line), message);
+  }
+}
@@ -1,10 +1,21 @@
 package jlox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
+/**
+ * Works out where every variable lives and records it in the AST. Every local gets a slot in the
+ * {@link Environment} of the function it is declared in; blocks take the next free slots and hand
+ * them back when they end, so entering a block allocates nothing. A local that some closure uses
+ * is captured: its slot holds a {@link Cell}, and each closure over it gets the cell as an
+ * upvalue, so closures hold only what they use instead of whole environments.
+ *
+ * <p>Code outside any function has no environment of its own. A block there, or the scope of
+ * 'super' for a class there, gets one for the scopes inside it.
+ */
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   private enum FunctionType {
     NONE,
@@ -19,22 +30,85 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     CLASS
   }
 
+  private static class Local {
+    final int slot;
+    boolean defined = false;
+    boolean captured = false;
+    int assignments = 0;
+    // The declaration and every use from the declaring function; they become cells if captured.
+    final List<Binding> bindings = new ArrayList<>();
+
+    Local(int slot) {
+      this.slot = slot;
+    }
+  }
+
+  // The environment a group of nested scopes shares, sized for the most slots in use at once.
+  private static class Frame {
+    int size = 0;
+  }
+
+  private static class Scope {
+    final Function function;
+    final Frame frame;
+    final boolean ownsFrame;
+    int nextSlot;
+    final Map<String, Local> locals = new HashMap<>();
+    final List<Local> declared = new ArrayList<>();
+
+    Scope(Function function, Frame frame, boolean ownsFrame, int nextSlot) {
+      this.function = function;
+      this.frame = frame;
+      this.ownsFrame = ownsFrame;
+      this.nextSlot = nextSlot;
+    }
+  }
+
+  // A function being resolved. Code outside any function belongs to one with no enclosing.
+  private static class Function {
+    final Function enclosing;
+    final List<Binding> upvalues = new ArrayList<>();
+    final Map<Local, Integer> upvalueIndexes = new HashMap<>();
+
+    Function(Function enclosing) {
+      this.enclosing = enclosing;
+    }
+  }
+
   private ClassType currentClass = ClassType.NONE;
 
-  private final Interpreter interpreter;
-  private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+  private final Diagnostics diagnostics;
+  private final Stack<Scope> scopes = new Stack<>();
+  private Function function = new Function(null);
   private FunctionType currentFunction = FunctionType.NONE;
 
-  Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
+  Resolver(Diagnostics diagnostics) {
+    this.diagnostics = diagnostics;
   }
 
-  private void beginScope() {
-    scopes.push(new HashMap<String, Boolean>());
+  // A function's scope starts a new environment; any other scope continues the enclosing one,
+  // if there is one.
+  private void beginScope(boolean functionScope) {
+    if (functionScope || scopes.isEmpty()) {
+      scopes.push(new Scope(function, new Frame(), true, 0));
+    } else {
+      Scope enclosing = scopes.peek();
+      scopes.push(new Scope(function, enclosing.frame, false, enclosing.nextSlot));
+    }
   }
 
-  private void endScope() {
-    scopes.pop();
+  // Returns the size of the environment to create on entering the scope, or 0 if the scope runs
+  // in the enclosing one.
+  private int endScope() {
+    Scope scope = scopes.pop();
+    for (Local local : scope.declared) {
+      if (local.captured) {
+        for (Binding binding : local.bindings) {
+          binding.kind = Binding.Kind.CELL;
+        }
+      }
+    }
+    return scope.ownsFrame ? scope.frame.size : 0;
   }
 
   void resolve(List<Stmt> statements) {
@@ -51,48 +125,125 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     expr.accept(this);
   }
 
-  private void resolveLocal(Expr expr, Token name) {
+  private Binding resolveLocal(String name) {
+    return resolveLocal(name, false);
+  }
+
+  // Returns null for globals.
+  private Binding resolveLocal(String name, boolean assignment) {
     for (int i = scopes.size() - 1; i >= 0; i--) {
-      if (scopes.get(i).containsKey(name.lexeme)) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
-        return;
+      Scope scope = scopes.get(i);
+      Local local = scope.locals.get(name);
+      if (local == null) {
+        continue;
+      }
+
+      if (scope.function == function) {
+        Binding binding = new Binding(Binding.Kind.LOCAL, local.slot);
+        local.bindings.add(binding);
+        if (assignment) {
+          local.assignments += 1;
+        }
+        return binding;
       }
+      local.captured = true;
+      return new Binding(Binding.Kind.UPVALUE, upvalue(function, local, i));
     }
+    return null;
   }
 
-  private void resolveFunction(Stmt.Function function, FunctionType type) {
+  // Index of `local` among the upvalues of `function`, threading it through every function in
+  // between. The closure gets the cell when it is created, at its declaration.
+  private int upvalue(Function function, Local local, int scopeIndex) {
+    Integer index = function.upvalueIndexes.get(local);
+    if (index != null) {
+      return index;
+    }
+
+    Binding capture;
+    if (scopes.get(scopeIndex).function == function.enclosing) {
+      capture = new Binding(Binding.Kind.CELL, local.slot);
+    } else {
+      capture = new Binding(Binding.Kind.UPVALUE, upvalue(function.enclosing, local, scopeIndex));
+    }
+    function.upvalues.add(capture);
+    function.upvalueIndexes.put(local, function.upvalues.size() - 1);
+    return function.upvalues.size() - 1;
+  }
+
+  private void resolveFunction(Stmt.Function stmt, FunctionType type) {
     FunctionType enclosingFunction = currentFunction;
     currentFunction = type;
-    beginScope();
-    for (Token param : function.params) {
-      declare(param);
-      define(param);
+    Function enclosing = function;
+    function = new Function(enclosing);
+    beginScope(true);
+
+    // Methods keep 'this' in their first slot.
+    stmt.receiver = null;
+    if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+      stmt.receiver = bind(declare("this"));
+      define("this");
     }
-    resolve(function.body);
-    endScope();
+    List<Binding> parameters = new ArrayList<>();
+    for (Token param : stmt.params) {
+      parameters.add(bind(declare(param.lexeme)));
+      define(param.lexeme);
+    }
+    stmt.parameters = parameters;
+
+    resolve(stmt.body);
+    stmt.slots = endScope();
+    stmt.upvalues = function.upvalues;
+    function = enclosing;
     currentFunction = enclosingFunction;
   }
 
-  private void declare(Token name) {
+  // Returns null for globals.
+  private Local declare(String name) {
     if (scopes.isEmpty()) {
-      return;
+      return null;
     }
 
-    scopes.peek().put(name.lexeme, false);
+    Scope scope = scopes.peek();
+    Local local = scope.locals.get(name);
+    if (local != null) {
+      // Declaring a name again in the same scope reuses the variable, so closures that captured
+      // it see the new value.
+      local.defined = false;
+      local.assignments++;
+      return local;
+    }
+    local = new Local(scope.nextSlot++);
+    scope.frame.size = Math.max(scope.frame.size, scope.nextSlot);
+    scope.declared.add(local);
+    scope.locals.put(name, local);
+    return local;
   }
 
-  private void define(Token name) {
+  private void define(String name) {
     if (scopes.isEmpty()) {
       return;
     }
 
-    scopes.peek().put(name.lexeme, true);
+    scopes.peek().locals.get(name).defined = true;
+  }
+
+  // The binding a declaration stores its value through, or null for globals.
+  private Binding bind(Local local) {
+    if (local == null) {
+      return null;
+    }
+    Binding binding = new Binding(Binding.Kind.LOCAL, local.slot);
+    // The first binding of a local is its first declaration.
+    binding.redeclaration = !local.bindings.isEmpty();
+    local.bindings.add(binding);
+    return binding;
   }
 
   @Override
   public Void visitAssignExpr(Expr.Assign expr) {
     resolve(expr.value);
-    resolveLocal(expr, expr.name);
+    expr.binding = resolveLocal(expr.name.lexeme, true);
     return null;
   }
 
@@ -122,35 +273,119 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    beginScope();
+    beginScope(false);
     resolve(stmt.statements);
-    endScope();
+    Scope scope = scopes.peek();
+    stmt.slots = endScope();
+    findCountedLoop(stmt, scope);
     return null;
   }
 
+  // Recognizes the block a for loop desugars to, `{ var i = start; while (i < limit) { body;
+  // i = i + step; } }`, once the block's scope is complete and captures are known. The counter
+  // must not be captured or assigned anywhere but the increment.
+  private void findCountedLoop(Stmt.Block block, Scope scope) {
+    if (block.statements.size() != 2
+        || !(block.statements.get(0) instanceof Stmt.Var)
+        || !(block.statements.get(1) instanceof Stmt.While)) {
+      return;
+    }
+    Stmt.Var var = (Stmt.Var) block.statements.get(0);
+    Stmt.While loop = (Stmt.While) block.statements.get(1);
+    Local counter = scope.locals.get(var.name.lexeme);
+    if (counter == null
+        || counter.captured
+        || counter.assignments != 1
+        || !counter.bindings.contains(var.binding)) {
+      return;
+    }
+
+    if (!(loop.condition instanceof Expr.Binary)) {
+      return;
+    }
+    Expr.Binary condition = (Expr.Binary) loop.condition;
+    switch (condition.operator.type) {
+      case LESS:
+      case LESS_EQUAL:
+      case GREATER:
+      case GREATER_EQUAL:
+        break;
+      default:
+        return;
+    }
+    if (!readsLocal(condition.left, counter)
+        || !(condition.right instanceof Expr.Literal || condition.right instanceof Expr.Variable)) {
+      return;
+    }
+
+    if (!(loop.body instanceof Stmt.Block)) {
+      return;
+    }
+    List<Stmt> body = ((Stmt.Block) loop.body).statements;
+    if (body.size() != 2 || !(body.get(1) instanceof Stmt.Expression)) {
+      return;
+    }
+    Expr increment = ((Stmt.Expression) body.get(1)).expression;
+    if (!(increment instanceof Expr.Assign)
+        || !counter.bindings.contains(((Expr.Assign) increment).binding)
+        || !(((Expr.Assign) increment).value instanceof Expr.Binary)) {
+      return;
+    }
+    Expr.Binary next = (Expr.Binary) ((Expr.Assign) increment).value;
+    if (!readsLocal(next.left, counter)
+        || !(next.right instanceof Expr.Literal)
+        || !Numbers.isNumber(((Expr.Literal) next.right).value)) {
+      return;
+    }
+    Object literal = ((Expr.Literal) next.right).value;
+    double step = Numbers.toDouble(literal);
+    if (next.operator.type == TokenType.MINUS) {
+      step = -step;
+    } else if (next.operator.type != TokenType.PLUS) {
+      return;
+    }
+
+    // The declaration, the condition and the increment's read and write account for four uses.
+    boolean readsCounter = counter.bindings.size() > 4;
+    loop.counted =
+        new CountedLoop(
+            var.binding.index,
+            condition.operator.type,
+            condition.right,
+            step,
+            literal instanceof Long,
+            body.get(0),
+            readsCounter);
+  }
+
+  private static boolean readsLocal(Expr expr, Local local) {
+    return expr instanceof Expr.Variable
+        && local.bindings.contains(((Expr.Variable) expr).binding);
+  }
+
   @Override
   public Void visitClassStmt(Stmt.Class stmt) {
     ClassType enclosingClass = currentClass;
     currentClass = ClassType.CLASS;
-    declare(stmt.name);
-    define(stmt.name);
+    stmt.binding = bind(declare(stmt.name.lexeme));
+    define(stmt.name.lexeme);
 
     if (stmt.superclass != null) {
       currentClass = ClassType.SUBCLASS;
       if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-        Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+        diagnostics.error(stmt.superclass.name, "A class can't inherit from itself.");
       }
       resolve(stmt.superclass);
     }
 
+    stmt.superBinding = null;
+    stmt.slots = 0;
     if (stmt.superclass != null) {
-      beginScope();
-      scopes.peek().put("super", true);
+      beginScope(false);
+      stmt.superBinding = bind(declare("super"));
+      define("super");
     }
 
-    beginScope();
-    scopes.peek().put("this", true);
-
     for (Stmt.Function method : stmt.methods) {
       FunctionType declaration = FunctionType.METHOD;
       if (method.name.lexeme.equals("init")) {
@@ -159,9 +394,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       resolveFunction(method, declaration);
     }
 
-    endScope();
-
-    if (stmt.superclass != null) endScope();
+    if (stmt.superclass != null) stmt.slots = endScope();
 
     currentClass = enclosingClass;
 
@@ -176,9 +409,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
-    declare(stmt.name);
+    stmt.binding = bind(declare(stmt.name.lexeme));
     // 为什么不直接define还提前declare
-    define(stmt.name);
+    define(stmt.name.lexeme);
 
     resolveFunction(stmt, FunctionType.FUNCTION);
     return null;
@@ -212,21 +445,22 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitSuperExpr(Expr.Super expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+      diagnostics.error(expr.keyword, "Can't use 'super' outside of a class.");
     } else if (currentClass != ClassType.SUBCLASS) {
-      Lox.error(expr.keyword, "Can't use 'super' in a class without superclass.");
+      diagnostics.error(expr.keyword, "Can't use 'super' in a class without superclass.");
     }
-    resolveLocal(expr, expr.keyword);
+    expr.binding = resolveLocal("super");
+    expr.thisBinding = resolveLocal("this");
     return null;
   }
 
   @Override
   public Void visitThisExpr(Expr.This expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+      diagnostics.error(expr.keyword, "Can't use 'this' outside of a class.");
       return null;
     }
-    resolveLocal(expr, expr.keyword);
+    expr.binding = resolveLocal("this");
     return null;
   }
 
@@ -253,12 +487,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
     if (currentFunction == FunctionType.NONE) {
-      Lox.error(stmt.keyword, "Can't return from top-level code.");
+      diagnostics.error(stmt.keyword, "Can't return from top-level code.");
     }
 
     if (stmt.value != null) {
       if (currentFunction == FunctionType.INITIALIZER) {
-        Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+        diagnostics.error(stmt.keyword, "Can't return a value from an initializer.");
       }
       resolve(stmt.value);
     }
@@ -268,21 +502,25 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
-    declare(stmt.name);
+    Local local = declare(stmt.name.lexeme);
     if (stmt.initializer != null) {
       resolve(stmt.initializer);
     }
-    define(stmt.name);
+    define(stmt.name.lexeme);
+    stmt.binding = bind(local);
     return null;
   }
 
   @Override
   public Void visitVariableExpr(Expr.Variable expr) {
-    if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-      Lox.error(expr.name, "Can't read local variable in its own initializer.");
+    if (!scopes.isEmpty()) {
+      Local local = scopes.peek().locals.get(expr.name.lexeme);
+      if (local != null && !local.defined) {
+        diagnostics.error(expr.name, "Can't read local variable in its own initializer.");
+      }
     }
 
-    resolveLocal(expr, expr.name);
+    expr.binding = resolveLocal(expr.name.lexeme);
     return null;
   }
 
@@ -0,0 +1,166 @@
+package jlox;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters behind {@link RuntimeMetricsMXBean}. They are only kept when {@code -Djlox.jmx=true}
+ * publishes them: otherwise every count method tests a constant and the JIT drops it. The
+ * counters are {@link LongAdder}s because the workers of {@code --serve} and {@code --batch} run
+ * interpreters on many threads at once, and would otherwise lose increments and contend for the
+ * same cache lines.
+ */
+final class RuntimeMetrics implements RuntimeMetricsMXBean {
+  static final boolean ENABLED = Boolean.getBoolean("jlox.jmx");
+
+  private static final LongAdder statements = new LongAdder();
+  private static final LongAdder calls = new LongAdder();
+  private static final LongAdder environments = new LongAdder();
+  private static final LongAdder lookups = new LongAdder();
+  private static final LongAdder lookupDepth = new LongAdder();
+  private static final LongAdder methodCacheHits = new LongAdder();
+  private static final LongAdder methodCacheMisses = new LongAdder();
+  private static final LongAdder instances = new LongAdder();
+  private static final LongAdder scripts = new LongAdder();
+  private static final LongAdder parseNanos = new LongAdder();
+  private static final LongAdder resolveNanos = new LongAdder();
+  private static final LongAdder executeNanos = new LongAdder();
+
+  private static boolean registered = false;
+
+  private RuntimeMetrics() {}
+
+  static void countStatement() {
+    if (ENABLED) {
+      statements.increment();
+    }
+  }
+
+  static void countCall() {
+    if (ENABLED) {
+      calls.increment();
+    }
+  }
+
+  static void countEnvironment() {
+    if (ENABLED) {
+      environments.increment();
+    }
+  }
+
+  /** Counts a variable lookup that went through `depth` indirections. */
+  static void countLookup(int depth) {
+    if (ENABLED) {
+      lookups.increment();
+      lookupDepth.add(depth);
+    }
+  }
+
+  static void countMethodLookup(boolean cacheHit) {
+    if (ENABLED) {
+      (cacheHit ? methodCacheHits : methodCacheMisses).increment();
+    }
+  }
+
+  static void countInstance() {
+    if (ENABLED) {
+      instances.increment();
+    }
+  }
+
+  static void countScript() {
+    if (ENABLED) {
+      scripts.increment();
+    }
+  }
+
+  static void addParseNanos(long nanos) {
+    if (ENABLED) {
+      parseNanos.add(nanos);
+    }
+  }
+
+  static void addResolveNanos(long nanos) {
+    if (ENABLED) {
+      resolveNanos.add(nanos);
+    }
+  }
+
+  static void addExecuteNanos(long nanos) {
+    if (ENABLED) {
+      executeNanos.add(nanos);
+    }
+  }
+
+  /**
+   * Publishes the counters on the platform MBean server. Starting that server takes a noticeable
+   * fraction of a second, so jlox only does this when asked to with {@code -Djlox.jmx=true}.
+   */
+  static synchronized void register() {
+    if (registered) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(new RuntimeMetrics(), new ObjectName("jlox:type=RuntimeMetrics"));
+      registered = true;
+    } catch (JMException e) {
+      throw new IllegalStateException("Could not register runtime metrics.", e);
+    }
+  }
+
+  @Override
+  public long getStatementsExecuted() {
+    return statements.sum();
+  }
+
+  @Override
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  @Override
+  public long getEnvironmentsAllocated() {
+    return environments.sum();
+  }
+
+  @Override
+  public double getAverageLookupDepth() {
+    long count = lookups.sum();
+    return count == 0 ? 0 : (double) lookupDepth.sum() / count;
+  }
+
+  @Override
+  public double getMethodCacheHitRate() {
+    long hits = methodCacheHits.sum();
+    long total = hits + methodCacheMisses.sum();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  @Override
+  public long getInstancesCreated() {
+    return instances.sum();
+  }
+
+  @Override
+  public long getScriptsRun() {
+    return scripts.sum();
+  }
+
+  @Override
+  public double getParseMillis() {
+    return parseNanos.sum() / 1e6;
+  }
+
+  @Override
+  public double getResolveMillis() {
+    return resolveNanos.sum() / 1e6;
+  }
+
+  @Override
+  public double getExecuteMillis() {
+    return executeNanos.sum() / 1e6;
+  }
+}
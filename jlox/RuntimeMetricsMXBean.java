@@ -0,0 +1,33 @@
+package jlox;
+
+/**
+ * Live interpreter counters, published over JMX as {@code jlox:type=RuntimeMetrics}. Counts and
+ * times are cumulative since the JVM started.
+ */
+public interface RuntimeMetricsMXBean {
+  long getStatementsExecuted();
+
+  long getCalls();
+
+  long getEnvironmentsAllocated();
+
+  /**
+   * Average number of hops per local variable read: 0 for a value in the function's environment,
+   * 1 for one boxed in a captured cell.
+   */
+  double getAverageLookupDepth();
+
+  /** Fraction of method lookups answered from a class's lookup cache, between 0 and 1. */
+  double getMethodCacheHitRate();
+
+  long getInstancesCreated();
+
+  long getScriptsRun();
+
+  /** Time spent parsing. The parser pulls tokens from the scanner, so this includes scanning. */
+  double getParseMillis();
+
+  double getResolveMillis();
+
+  double getExecuteMillis();
+}
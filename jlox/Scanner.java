@@ -2,46 +2,95 @@ package jlox;
 
 import static jlox.TokenType.*;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 class Scanner {
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Reader source;
+  private final Diagnostics diagnostics;
+  // Sliding window over the source. Everything before `start` has already
+  // been turned into tokens and may be discarded when the window is refilled.
+  private char[] buffer;
+  private int limit = 0;
+  // Number of characters dropped from the front of the window so far.
+  private int discarded = 0;
+  private boolean exhausted = false;
+  private Token pending = null;
+  // When set, tokens are recorded here as offsets instead of being built as Token objects.
+  private TokenBuffer target = null;
   private int start = 0;
   private int current = 0;
-  private int line = 1;
-
-  private static final Map<String, TokenType> keywords;
-
-  static {
-    keywords = new HashMap<>();
-    keywords.put("and", AND);
-    keywords.put("class", CLASS);
-    keywords.put("else", ELSE);
-    keywords.put("false", FALSE);
-    keywords.put("for", FOR);
-    keywords.put("fun", FUN);
-    keywords.put("if", IF);
-    keywords.put("nil", NIL);
-    keywords.put("or", OR);
-    keywords.put("print", PRINT);
-    keywords.put("return", RETURN);
-    keywords.put("super", SUPER);
-    keywords.put("this", THIS);
-    keywords.put("true", TRUE);
-    keywords.put("var", VAR);
-    keywords.put("while", WHILE);
+  private int line;
+
+  // Exact powers of ten for the fast number path below.
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+    1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  Scanner(String source, Diagnostics diagnostics) {
+    this(source, 1, diagnostics);
+  }
+
+  Scanner(String source, int line, Diagnostics diagnostics) {
+    // Short sources, such as single declarations, don't need a full-size window.
+    this(new StringReader(source), Math.min(BUFFER_SIZE, source.length() + 16), line, diagnostics);
   }
 
-  Scanner(String source) {
+  Scanner(Reader source, int line, Diagnostics diagnostics) {
+    this(source, BUFFER_SIZE, line, diagnostics);
+  }
+
+  private Scanner(Reader source, int bufferSize, int line, Diagnostics diagnostics) {
     this.source = source;
+    this.buffer = new char[bufferSize];
+    this.line = line;
+    this.diagnostics = diagnostics;
   }
 
   boolean isAtEnd() {
-    return current >= source.length();
+    return current >= limit && !fill(1);
+  }
+
+  // Makes sure at least `count` characters past `current` are buffered.
+  // Returns false if the source ends first.
+  private boolean fill(int count) {
+    while (current + count > limit) {
+      if (exhausted) {
+        return false;
+      }
+
+      if (start > 0) {
+        System.arraycopy(buffer, start, buffer, 0, limit - start);
+        limit -= start;
+        current -= start;
+        discarded += start;
+        start = 0;
+      }
+      if (limit == buffer.length) {
+        // A single lexeme is larger than the window.
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+
+      try {
+        int read = source.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+          exhausted = true;
+        } else {
+          limit += read;
+        }
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    }
+    return true;
   }
 
   private boolean match(char expected) {
@@ -58,17 +107,14 @@ class Scanner {
     if (isAtEnd()) {
       return '\0';
     }
-    return source.charAt(current);
+    return buffer[current];
   }
 
   private char peekNext() {
-    current += 1;
-    if (isAtEnd()) {
+    if (!fill(2)) {
       return '\0';
     }
-    current -= 1;
-
-    return source.charAt(current + 1);
+    return buffer[current + 1];
   }
 
   private boolean isDigit(char c) {
@@ -87,26 +133,55 @@ class Scanner {
     if (isAtEnd()) {
       return '\0';
     }
-    return source.charAt(current++);
+    return buffer[current++];
+  }
+
+  private String lexeme() {
+    return new String(buffer, start, current - start);
   }
 
   private void addToken(TokenType type) {
-    addToken(type, null);
+    if (target != null) {
+      target.add(type, discarded + start, discarded + current, line);
+    } else {
+      pending = new Token(type, lexeme(), null, line);
+    }
   }
 
-  private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+  /** Scans just far enough to produce the next token. Returns EOF once the source is consumed. */
+  Token nextToken() {
+    while (pending == null && !isAtEnd()) {
+      // We are at the beginning of the next lexeme.
+      start = current;
+      scanToken();
+    }
+
+    if (pending == null) {
+      return new Token(EOF, "", null, line);
+    }
+    Token token = pending;
+    pending = null;
+    return token;
   }
 
-  List<Token> scanTokens() {
+  /** Scans the whole source into a compact buffer, without building any Token objects. */
+  void scanInto(TokenBuffer tokens) {
+    target = tokens;
     while (!isAtEnd()) {
-      // We are at the beginning of the next lexeme.
       start = current;
       scanToken();
     }
+    tokens.add(EOF, discarded + current, discarded + current, line);
+    target = null;
+  }
 
-    tokens.add(new Token(EOF, "", null, line));
+  List<Token> scanTokens() {
+    List<Token> tokens = new ArrayList<>();
+    Token token;
+    do {
+      token = nextToken();
+      tokens.add(token);
+    } while (token.type != EOF);
     return tokens;
   }
 
@@ -163,6 +238,7 @@ class Scanner {
           // comment
           while (!isAtEnd() && peek() != '\n') {
             advance();
+            start = current;
           }
         } else if (match('*')) {
           // multiline comment
@@ -190,7 +266,7 @@ class Scanner {
         } else if (isAlpha(c)) {
           identifier();
         } else {
-          Lox.error(line, "Unexpected character.");
+          diagnostics.error(line, "Unexpected character.");
           break;
         }
     }
@@ -206,16 +282,20 @@ class Scanner {
 
     if (isAtEnd()) {
       // string not ending
-      Lox.error(line, "Unterminated string.");
+      diagnostics.error(line, "Unterminated string.");
       return;
     }
 
     // The closing ".
     advance();
 
-    // Trim the surrounding quotes.
-    String value = source.substring(start + 1, current - 1);
-    addToken(STRING, value);
+    if (target != null) {
+      addToken(STRING);
+    } else {
+      // Trim the surrounding quotes.
+      String value = new String(buffer, start + 1, current - start - 2);
+      pending = new Token(STRING, lexeme(), value, line);
+    }
   }
 
   private void number() {
@@ -233,31 +313,119 @@ class Scanner {
     //        // 这里不是很严谨，如果数字后面接的是';'呢？
     //        // 还有其他可能性吗？
     //        if (!match(' ') && !match(')') && !match(';')) {
-    //            Lox.error(line, "Number can't be the start of an identifier");
+    //            diagnostics.error(line, "Number can't be the start of an identifier");
     //            while (isAlphaNumeric(peek())) {
     //                advance();
     //            }
     //            return;
     //        }
-    addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+    double value = numberValue();
+    if (target != null) {
+      target.addNumber(discarded + start, discarded + current, line, value);
+    } else {
+      pending = new Token(NUMBER, lexeme(), value, line);
+    }
+  }
+
+  private double numberValue() {
+    long mantissa = 0;
+    int digits = 0;
+    int scale = -1;
+    for (int i = start; i < current; i++) {
+      char c = buffer[i];
+      if (c == '.') {
+        scale = 0;
+        continue;
+      }
+      mantissa = mantissa * 10 + (c - '0');
+      digits += 1;
+      if (scale >= 0) {
+        scale += 1;
+      }
+    }
+
+    // Both operands are exact here, so a single division rounds correctly.
+    if (digits <= 15) {
+      return scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+    }
+    return Double.parseDouble(lexeme());
   }
 
   private void identifier() {
     while (isAlphaNumeric(peek())) advance();
 
-    String identifier = source.substring(start, current);
-    // keywords
-    if (keywords.containsKey(identifier)) {
-      addToken(keywords.get(identifier));
-    } else {
-      addToken(IDENTIFIER);
+    addToken(identifierType());
+  }
+
+  // Recognizes keywords straight from the buffer, without building the lexeme.
+  private TokenType identifierType() {
+    switch (buffer[start]) {
+      case 'a':
+        return checkKeyword(1, "nd", AND);
+      case 'c':
+        return checkKeyword(1, "lass", CLASS);
+      case 'e':
+        return checkKeyword(1, "lse", ELSE);
+      case 'f':
+        if (current - start > 1) {
+          switch (buffer[start + 1]) {
+            case 'a':
+              return checkKeyword(2, "lse", FALSE);
+            case 'o':
+              return checkKeyword(2, "r", FOR);
+            case 'u':
+              return checkKeyword(2, "n", FUN);
+          }
+        }
+        break;
+      case 'i':
+        return checkKeyword(1, "f", IF);
+      case 'n':
+        return checkKeyword(1, "il", NIL);
+      case 'o':
+        return checkKeyword(1, "r", OR);
+      case 'p':
+        return checkKeyword(1, "rint", PRINT);
+      case 'r':
+        return checkKeyword(1, "eturn", RETURN);
+      case 's':
+        return checkKeyword(1, "uper", SUPER);
+      case 't':
+        if (current - start > 1) {
+          switch (buffer[start + 1]) {
+            case 'h':
+              return checkKeyword(2, "is", THIS);
+            case 'r':
+              return checkKeyword(2, "ue", TRUE);
+          }
+        }
+        break;
+      case 'v':
+        return checkKeyword(1, "ar", VAR);
+      case 'w':
+        return checkKeyword(1, "hile", WHILE);
     }
+    return IDENTIFIER;
+  }
+
+  private TokenType checkKeyword(int offset, String rest, TokenType type) {
+    if (current - start != offset + rest.length()) {
+      return IDENTIFIER;
+    }
+    for (int i = 0; i < rest.length(); i++) {
+      if (buffer[start + offset + i] != rest.charAt(i)) {
+        return IDENTIFIER;
+      }
+    }
+    return type;
   }
 
   private void mulcomment() {
     int parentheses = 1;
 
     while (!isAtEnd() && parentheses > 0) {
+      // Nothing inside a comment needs to stay buffered.
+      start = current;
       char c = advance();
 
       if (c == '/') {
@@ -0,0 +1,41 @@
+package jlox;
+
+import static jlox.TokenType.*;
+
+/**
+ * Pulls tokens from a {@link Scanner} as the parser asks for them. Only the current lookahead and
+ * the most recently consumed token are kept alive, so memory does not grow with the source.
+ */
+class ScannerTokenStream implements TokenStream {
+  private final Scanner scanner;
+  private Token previous = null;
+  private Token next;
+
+  ScannerTokenStream(Scanner scanner) {
+    this.scanner = scanner;
+    this.next = scanner.nextToken();
+  }
+
+  @Override
+  public TokenType peekType() {
+    return next.type;
+  }
+
+  @Override
+  public Token peek() {
+    return next;
+  }
+
+  @Override
+  public Token previous() {
+    return previous;
+  }
+
+  @Override
+  public void advance() {
+    if (next.type != EOF) {
+      previous = next;
+      next = scanner.nextToken();
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package jlox;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@code jlox --serve socket}: a daemon that runs scripts sent over a Unix domain socket, so they
+ * start on a JVM whose JIT is already warm. Each connection carries one request, which runs
+ * against a fresh interpreter with its own globals and diagnostics. Connections are served
+ * concurrently.
+ *
+ * <p>The protocol is line-based UTF-8 text, so shell tools can speak it. A request is a header
+ * line, either {@code RUN <path>} to run a script file or {@code EVAL} followed by the source up
+ * to end of input. Output is streamed back one line per line of output, prefixed with
+ * {@code out } or {@code err }, and ends with {@code exit <code>}. The codes are those of
+ * {@code jlox}: 0, 64 for a bad request or unreadable script, 65 for a compile error and 70 for
+ * a runtime error.
+ *
+ * <p>A script stops when its client hangs up and output to it fails, and otherwise after
+ * {@link #DEFAULT_TIMEOUT_MILLIS} unless -Djlox.timeout says different. Without that, a script
+ * that never ends would hold its request thread until the server restarts.
+ *
+ * <pre>
+ * { echo EVAL; cat script.lox; } | nc -U -N /tmp/jlox.sock
+ * </pre>
+ */
+class ScriptServer {
+  static final long DEFAULT_TIMEOUT_MILLIS = 60_000;
+
+  private final Path socket;
+  private final ExecutorService pool =
+      Executors.newCachedThreadPool(
+          task -> {
+            Thread thread = new Thread(null, task, "jlox-request", Lox.stackSize());
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  ScriptServer(Path socket) {
+    this.socket = socket;
+  }
+
+  void serve() throws IOException {
+    // A socket file left behind by an earlier server would make bind fail, but anything else at
+    // the path is someone's file or a server that is still running.
+    if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+      if (!Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)
+          .isOther()) {
+        System.err.println("'" + socket + "' exists and is not a socket.");
+        System.exit(64);
+      }
+      if (isLive(socket)) {
+        System.err.println("Another server is already serving on " + socket + ".");
+        System.exit(64);
+      }
+      Files.delete(socket);
+    }
+    try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(socket));
+      // The server normally runs until it is killed, which skips the finally below.
+      Runtime.getRuntime()
+          .addShutdownHook(
+              new Thread(
+                  () -> {
+                    try {
+                      Files.deleteIfExists(socket);
+                    } catch (IOException e) {
+                      // Nothing more to do on the way out.
+                    }
+                  }));
+      System.err.println("Serving on " + socket);
+      for (; ; ) {
+        SocketChannel client = server.accept();
+        pool.execute(() -> handle(client));
+      }
+    } finally {
+      Files.deleteIfExists(socket);
+    }
+  }
+
+  private static boolean isLive(Path socket) {
+    try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static void handle(SocketChannel client) {
+    try (SocketChannel channel = client) {
+      BufferedReader in =
+          new BufferedReader(
+              new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+      Response response = new Response(Channels.newOutputStream(channel));
+      int code;
+      try {
+        code = run(in, response);
+      } catch (RuntimeException | Error e) {
+        // A bug in jlox or an exhausted JVM fails this request, not the server.
+        response.line("err ", "Internal error: " + e);
+        code = 70;
+      }
+      response.exit(code);
+      response.close();
+    } catch (IOException e) {
+      // The client went away; there is nobody left to report to.
+    }
+  }
+
+  private static int run(BufferedReader in, Response response) throws IOException {
+    String header = in.readLine();
+    String source;
+    if (header != null && header.startsWith("RUN ")) {
+      String path = header.substring("RUN ".length());
+      try {
+        source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+      } catch (IOException e) {
+        response.line("err ", "Could not read '" + path + "'.");
+        return 64;
+      }
+    } else if ("EVAL".equals(header)) {
+      StringBuilder text = new StringBuilder();
+      char[] buffer = new char[8192];
+      for (int n; (n = in.read(buffer)) != -1; ) {
+        text.append(buffer, 0, n);
+      }
+      source = text.toString();
+    } else {
+      response.line("err ", "Expected 'RUN <path>' or 'EVAL'.");
+      return 64;
+    }
+
+    Diagnostics diagnostics = new Diagnostics(response.errors());
+    Interpreter interpreter = new Interpreter(diagnostics, value -> response.output(value));
+    // Even without limits the script needs a quota, so a hang-up can cancel it.
+    Quota quota = Quota.fromProperties(DEFAULT_TIMEOUT_MILLIS);
+    interpreter.quota = quota != null ? quota : new Quota(0, 0, 0);
+    response.quota = interpreter.quota;
+    RuntimeMetrics.countScript();
+    List<Stmt> statements =
+        new Parser(TokenBuffer.scan(source, diagnostics).stream(), diagnostics).parse();
+    if (!diagnostics.hadError) {
+      new Resolver(diagnostics).resolve(statements);
+    }
+    if (diagnostics.hadError) {
+      return 65;
+    }
+    new TypeInference().infer(statements);
+    new Inliner().inline(statements);
+    interpreter.interpret(statements);
+    return diagnostics.hadRuntimeError ? 70 : 0;
+  }
+
+  /** Frames output, error and exit lines onto one connection. */
+  private static class Response {
+    private final Writer writer;
+    // The running script's quota, cancelled when the client hangs up. Null until it runs.
+    Quota quota = null;
+
+    Response(OutputStream out) {
+      writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    void output(Object value) {
+      // A string with newlines in it prints as several lines.
+      for (String line : Interpreter.stringify(value).split("\n", -1)) {
+        line("out ", line);
+      }
+    }
+
+    // Diagnostics print through this; each complete line is framed when the stream is flushed.
+    PrintStream errors() {
+      OutputStream lines =
+          new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+              String text = toString(StandardCharsets.UTF_8);
+              int end = text.lastIndexOf('\n');
+              if (end < 0) {
+                return;
+              }
+              for (String line : text.substring(0, end).split("\n", -1)) {
+                line("err ", line);
+              }
+              reset();
+              byte[] rest = text.substring(end + 1).getBytes(StandardCharsets.UTF_8);
+              write(rest, 0, rest.length);
+            }
+          };
+      return new PrintStream(lines, true, StandardCharsets.UTF_8);
+    }
+
+    // Each line is flushed as it is framed, so a client sees a long-running script's output as it
+    // is printed rather than when the script ends.
+    void line(String prefix, String text) {
+      try {
+        writer.write(prefix);
+        writer.write(text);
+        writer.write('\n');
+        writer.flush();
+      } catch (IOException e) {
+        // The client hung up, so nobody is waiting for the script to finish.
+        if (quota != null) {
+          quota.cancel();
+        }
+      }
+    }
+
+    void exit(int code) {
+      line("exit ", Integer.toString(code));
+    }
+
+    void close() throws IOException {
+      writer.close();
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the boundaries between top-level declarations. This is a much cheaper pass than scanning:
+ * it only tracks strings, comments and bracket depth, and stops after a ';' or '}' that sits at
+ * depth zero and is not followed by an 'else'. Since nothing carries over a boundary, splitting
+ * can resume from any of them.
+ */
+class SourceSplitter {
+  static class Piece {
+    final String text;
+    final int line;
+
+    Piece(String text, int line) {
+      this.text = text;
+      this.line = line;
+    }
+  }
+
+  private final CharSequence source;
+  private int position;
+  private int line;
+
+  /** Starts splitting at `position`, which must be a boundary found earlier or 0. */
+  SourceSplitter(CharSequence source, int position, int line) {
+    this.source = source;
+    this.position = position;
+    this.line = line;
+  }
+
+  /** Returns pieces of at least `minLength` characters, except possibly the last one. */
+  static List<Piece> split(String source, int minLength) {
+    List<Piece> pieces = new ArrayList<>();
+    SourceSplitter splitter = new SourceSplitter(source, 0, 1);
+    int pieceStart = 0;
+    int pieceLine = 1;
+
+    while (!splitter.isAtEnd()) {
+      splitter.nextBoundary();
+      if (splitter.position - pieceStart >= minLength || splitter.isAtEnd()) {
+        pieces.add(new Piece(source.substring(pieceStart, splitter.position), pieceLine));
+        pieceStart = splitter.position;
+        pieceLine = splitter.line;
+      }
+    }
+
+    if (pieces.isEmpty()) {
+      pieces.add(new Piece(source, 1));
+    }
+    return pieces;
+  }
+
+  int position() {
+    return position;
+  }
+
+  int line() {
+    return line;
+  }
+
+  boolean isAtEnd() {
+    return position >= source.length();
+  }
+
+  /** Moves just past the next top-level boundary, or to the end of the source. */
+  void nextBoundary() {
+    int length = source.length();
+    int depth = 0;
+    int i = position;
+
+    while (i < length) {
+      char c = source.charAt(i++);
+      boolean boundary = false;
+      switch (c) {
+        case '\n':
+          line += 1;
+          break;
+        case '"':
+          while (i < length && source.charAt(i) != '"') {
+            if (source.charAt(i) == '\n') {
+              line += 1;
+            }
+            i += 1;
+          }
+          i += 1;
+          break;
+        case '/':
+          if (i < length && source.charAt(i) == '/') {
+            while (i < length && source.charAt(i) != '\n') {
+              i += 1;
+            }
+          } else if (i < length && source.charAt(i) == '*') {
+            int end = skipBlockComment(source, i + 1);
+            line += countLines(source, i, end);
+            i = end;
+          }
+          break;
+        case '(':
+        case '{':
+          depth += 1;
+          break;
+        case ')':
+          depth -= 1;
+          break;
+        case '}':
+          depth -= 1;
+          boundary = true;
+          break;
+        case ';':
+          boundary = true;
+          break;
+      }
+
+      if (boundary && depth == 0 && !startsWithElse(source, skipTrivia(source, i))) {
+        break;
+      }
+    }
+
+    position = Math.min(i, length);
+  }
+
+  // Mirrors Scanner.mulcomment(): block comments nest.
+  private static int skipBlockComment(CharSequence source, int i) {
+    int nesting = 1;
+    int length = source.length();
+    while (i < length && nesting > 0) {
+      char c = source.charAt(i++);
+      if (c == '/' && i < length && source.charAt(i) == '*') {
+        nesting += 1;
+        i += 1;
+      } else if (c == '*' && i < length && source.charAt(i) == '/') {
+        nesting -= 1;
+        i += 1;
+      }
+    }
+    return i;
+  }
+
+  private static int countLines(CharSequence source, int from, int to) {
+    int lines = 0;
+    for (int i = from; i < to; i++) {
+      if (source.charAt(i) == '\n') {
+        lines += 1;
+      }
+    }
+    return lines;
+  }
+
+  private static int skipTrivia(CharSequence source, int i) {
+    int length = source.length();
+    while (i < length) {
+      char c = source.charAt(i);
+      if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+        i += 1;
+      } else if (startsWith(source, "//", i)) {
+        while (i < length && source.charAt(i) != '\n') {
+          i += 1;
+        }
+      } else if (startsWith(source, "/*", i)) {
+        i = skipBlockComment(source, i + 2);
+      } else {
+        break;
+      }
+    }
+    return i;
+  }
+
+  private static boolean startsWithElse(CharSequence source, int i) {
+    if (!startsWith(source, "else", i)) {
+      return false;
+    }
+    int end = i + 4;
+    if (end == source.length()) {
+      return true;
+    }
+    char c = source.charAt(end);
+    return !(Character.isLetterOrDigit(c) || c == '_');
+  }
+
+  private static boolean startsWith(CharSequence source, String prefix, int i) {
+    if (i + prefix.length() > source.length()) {
+      return false;
+    }
+    for (int j = 0; j < prefix.length(); j++) {
+      if (source.charAt(i + j) != prefix.charAt(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -34,6 +34,9 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+
+    // Filled in by the Resolver.
+    int slots;
   }
 
   static class Class extends Stmt {
@@ -51,6 +54,11 @@ abstract class Stmt {
     final Token name;
     final Expr.Variable superclass;
     final List<Stmt.Function> methods;
+
+    // Filled in by the Resolver.
+    Binding binding;
+    Binding superBinding;
+    int slots;
   }
 
   static class Expression extends Stmt {
@@ -81,6 +89,13 @@ abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+
+    // Filled in by the Resolver.
+    Binding binding;
+    Binding receiver;
+    List<Binding> parameters;
+    List<Binding> upvalues;
+    int slots;
   }
 
   static class If extends Stmt {
@@ -141,6 +156,9 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+
+    // Filled in by the Resolver.
+    Binding binding;
   }
 
   static class While extends Stmt {
@@ -156,7 +174,16 @@ abstract class Stmt {
 
     final Expr condition;
     final Stmt body;
+
+    // Filled in by the Resolver.
+    CountedLoop counted;
   }
 
+  /** Line the statement starts on, relative to its piece of source when that has an origin. */
+  int line;
+
+  /** First coverage probe of this statement, or -1 when coverage has not instrumented it. */
+  int probe = -1;
+
   abstract <R> R accept(Visitor<R> visitor);
 }
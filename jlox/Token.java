@@ -1,16 +1,35 @@
 package jlox;
 
 class Token {
+  /**
+   * The first line of a piece of source that may move around inside its file, as in an editor.
+   * Tokens scanned from such a piece store their line relative to it, so the whole piece can be
+   * moved by updating this one field.
+   */
+  static class Origin {
+    int line = 0;
+  }
+
   final TokenType type;
   final String lexeme;
   final Object literal;
-  final int line;
+  private final int line;
+  private final Origin origin;
 
   Token(TokenType type, String lexeme, Object literal, int line) {
+    this(type, lexeme, literal, line, null);
+  }
+
+  Token(TokenType type, String lexeme, Object literal, int line, Origin origin) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.origin = origin;
+  }
+
+  int line() {
+    return origin == null ? line : origin.line + line;
   }
 
   public String toString() {
@@ -0,0 +1,154 @@
+package jlox;
+
+import static jlox.TokenType.*;
+
+import java.util.Arrays;
+
+/**
+ * Scanned tokens stored column-wise in primitive arrays. Nothing is copied out of the source while
+ * scanning: a {@link Token} with its lexeme and literal is only built when the parser consumes it
+ * or an error message needs it.
+ */
+class TokenBuffer {
+  private static final TokenType[] TYPES = TokenType.values();
+  private static final int NO_LITERAL = -1;
+
+  private final String source;
+  private final Token.Origin origin;
+  private byte[] types;
+  private int[] starts;
+  private int[] ends;
+  private int[] lines;
+  // Index into `numbers` for NUMBER tokens. String literals are sliced out of the source instead.
+  private int[] literals;
+  private double[] numbers = new double[16];
+  private int size = 0;
+  private int numberCount = 0;
+
+  TokenBuffer(String source, Token.Origin origin) {
+    this.source = source;
+    this.origin = origin;
+
+    // There is never more than one token per character, plus EOF.
+    int capacity = Math.min(256, source.length() + 1);
+    types = new byte[capacity];
+    starts = new int[capacity];
+    ends = new int[capacity];
+    lines = new int[capacity];
+    literals = new int[capacity];
+  }
+
+  static TokenBuffer scan(String source, Diagnostics diagnostics) {
+    return scan(source, 1, diagnostics);
+  }
+
+  /** Scans `source` as if it started on `line` of some larger file. */
+  static TokenBuffer scan(String source, int line, Diagnostics diagnostics) {
+    TokenBuffer tokens = new TokenBuffer(source, null);
+    new Scanner(source, line, diagnostics).scanInto(tokens);
+    return tokens;
+  }
+
+  /** Scans `source` with lines counted from zero, relative to `origin`. */
+  static TokenBuffer scan(String source, Token.Origin origin, Diagnostics diagnostics) {
+    TokenBuffer tokens = new TokenBuffer(source, origin);
+    new Scanner(source, 0, diagnostics).scanInto(tokens);
+    return tokens;
+  }
+
+  void add(TokenType type, int start, int end, int line) {
+    add(type, start, end, line, NO_LITERAL);
+  }
+
+  void addNumber(int start, int end, int line, double value) {
+    if (numberCount == numbers.length) {
+      numbers = Arrays.copyOf(numbers, numberCount * 2);
+    }
+    numbers[numberCount] = value;
+    add(NUMBER, start, end, line, numberCount++);
+  }
+
+  private void add(TokenType type, int start, int end, int line, int literal) {
+    if (size == types.length) {
+      int capacity = size * 2;
+      types = Arrays.copyOf(types, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+      literals = Arrays.copyOf(literals, capacity);
+    }
+    types[size] = (byte) type.ordinal();
+    starts[size] = start;
+    ends[size] = end;
+    lines[size] = line;
+    literals[size] = literal;
+    size += 1;
+  }
+
+  int size() {
+    return size;
+  }
+
+  TokenType type(int index) {
+    return TYPES[types[index]];
+  }
+
+  int line(int index) {
+    return lines[index];
+  }
+
+  String lexeme(int index) {
+    return source.substring(starts[index], ends[index]);
+  }
+
+  Object literal(int index) {
+    switch (type(index)) {
+      case NUMBER:
+        return numbers[literals[index]];
+      case STRING:
+        // Trim the surrounding quotes.
+        return source.substring(starts[index] + 1, ends[index] - 1);
+      default:
+        return null;
+    }
+  }
+
+  Token token(int index) {
+    return new Token(type(index), lexeme(index), literal(index), lines[index], origin);
+  }
+
+  TokenStream stream() {
+    return new Cursor();
+  }
+
+  private class Cursor implements TokenStream {
+    private int current = 0;
+    private Token previous = null;
+
+    @Override
+    public TokenType peekType() {
+      return type(current);
+    }
+
+    @Override
+    public Token peek() {
+      return token(current);
+    }
+
+    @Override
+    public Token previous() {
+      if (previous == null) {
+        previous = token(current - 1);
+      }
+      return previous;
+    }
+
+    @Override
+    public void advance() {
+      if (type(current) != EOF) {
+        current += 1;
+        previous = null;
+      }
+    }
+  }
+}
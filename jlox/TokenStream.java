@@ -0,0 +1,12 @@
+package jlox;
+
+/** The parser's view of its input: one token of lookahead plus the token just consumed. */
+interface TokenStream {
+  TokenType peekType();
+
+  Token peek();
+
+  Token previous();
+
+  void advance();
+}
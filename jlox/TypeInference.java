@@ -0,0 +1,483 @@
+package jlox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Infers the types that values can have over a whole resolved program, so the interpreter can
+ * skip type checks on arithmetic whose operands are always numbers. Only a complete program can
+ * be analyzed; the prompt, where later lines may redefine anything, doesn't use it.
+ *
+ * <p>A type is a set of kinds, kept as bits. Local variables that no closure captures are tracked
+ * flow-sensitively: each assignment replaces the variable's type, branches are joined and loops
+ * are iterated until their entry types stop growing. Captured variables, globals, fields and
+ * anything returned by an unknown callee may hold any type.
+ *
+ * <p>A global function that is declared once and never assigned is "known": calls to it take its
+ * inferred return type. If it is only ever called directly, never passed around as a value, its
+ * parameters take the union of the arguments at its call sites. Parameter and return types depend
+ * on each other, so the program is analyzed repeatedly until none of them grows.
+ */
+class TypeInference implements Stmt.Visitor<Void>, Expr.Visitor<Integer> {
+  static final int NUMBER = 1;
+  static final int STRING = 1 << 1;
+  static final int BOOLEAN = 1 << 2;
+  static final int NIL = 1 << 3;
+  static final int FUNCTION = 1 << 4;
+  static final int CLASS = 1 << 5;
+  static final int INSTANCE = 1 << 6;
+  // Arrays, maps, files and anything else from natives.
+  static final int OTHER = 1 << 7;
+  static final int ANY = (1 << 8) - 1;
+
+  private static final String[] NAMES = {
+    "number", "string", "boolean", "nil", "function", "class", "instance", "other"
+  };
+
+  private static class Known {
+    final Stmt.Function declaration;
+    final int[] parameters;
+    int returns = 0;
+    boolean escapes = false;
+
+    Known(Stmt.Function declaration) {
+      this.declaration = declaration;
+      this.parameters = new int[declaration.params.size()];
+    }
+  }
+
+  private final Map<String, Known> known = new HashMap<>();
+  // Operand types seen at each arithmetic or comparison, left in the low byte and right above.
+  private final Map<Expr, Integer> operands = new IdentityHashMap<>();
+  private final List<Expr> sites = new ArrayList<>();
+
+  // Types of the running frame's uncaptured locals, by slot, or null where code is unreachable.
+  private int[] locals = new int[0];
+  // The known function whose returns are being collected, if any.
+  private Known function = null;
+  private boolean changed;
+
+  /** Analyzes the program and marks the operations whose operands are always numbers. */
+  void infer(List<Stmt> statements) {
+    findKnownFunctions(statements);
+    do {
+      changed = false;
+      locals = new int[0];
+      function = null;
+      analyze(statements);
+    } while (changed);
+
+    for (Map.Entry<Expr, Integer> entry : operands.entrySet()) {
+      int left = entry.getValue() & ANY;
+      int right = entry.getValue() >>> 8;
+      Expr expr = entry.getKey();
+      if (expr instanceof Expr.Binary) {
+        ((Expr.Binary) expr).numeric = left == NUMBER && right == NUMBER;
+      } else {
+        ((Expr.Unary) expr).numeric = right == NUMBER;
+      }
+    }
+  }
+
+  /** Prints the signatures of known functions and every operation whose operand types vary. */
+  void report(PrintStream out) {
+    List<Known> functions = new ArrayList<>(known.values());
+    functions.sort((a, b) -> Integer.compare(a.declaration.name.line(), b.declaration.name.line()));
+    for (Known info : functions) {
+      StringBuilder signature = new StringBuilder("fun " + info.declaration.name.lexeme + "(");
+      for (int i = 0; i < info.parameters.length; i++) {
+        signature
+            .append(i > 0 ? ", " : "")
+            .append(info.declaration.params.get(i).lexeme)
+            .append(": ")
+            .append(describe(info.escapes ? ANY : info.parameters[i]));
+      }
+      signature.append(") -> ").append(describe(info.returns));
+      out.println("[line " + info.declaration.name.line() + "] " + signature);
+    }
+
+    int unstable = 0;
+    for (Expr expr : sites) {
+      int types = operands.get(expr);
+      int left = types & ANY;
+      int right = types >>> 8;
+      if (Integer.bitCount(left) > 1 || Integer.bitCount(right) > 1) {
+        Token operator =
+            expr instanceof Expr.Binary
+                ? ((Expr.Binary) expr).operator
+                : ((Expr.Unary) expr).operator;
+        String kinds =
+            expr instanceof Expr.Binary
+                ? describe(left) + " " + operator.lexeme + " " + describe(right)
+                : operator.lexeme + describe(right);
+        out.println("[line " + operator.line() + "] Type-unstable: " + kinds);
+        unstable++;
+      }
+    }
+    out.println(unstable + " of " + sites.size() + " operations are type-unstable.");
+  }
+
+  static String describe(int type) {
+    if (type == ANY) {
+      return "any";
+    }
+    if (type == 0) {
+      return "never";
+    }
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < NAMES.length; i++) {
+      if ((type & (1 << i)) != 0) {
+        text.append(text.length() > 0 ? "|" : "").append(NAMES[i]);
+      }
+    }
+    return text.toString();
+  }
+
+  // Global functions declared once at the top level and never declared or assigned otherwise.
+  private void findKnownFunctions(List<Stmt> statements) {
+    Map<String, Integer> definitions = new HashMap<>();
+    for (Stmt stmt : statements) {
+      if (stmt instanceof Stmt.Function && ((Stmt.Function) stmt).binding == null) {
+        Stmt.Function declaration = (Stmt.Function) stmt;
+        known.put(declaration.name.lexeme, new Known(declaration));
+        definitions.merge(declaration.name.lexeme, 1, Integer::sum);
+      } else if (stmt instanceof Stmt.Var && ((Stmt.Var) stmt).binding == null) {
+        definitions.merge(((Stmt.Var) stmt).name.lexeme, 1, Integer::sum);
+      } else if (stmt instanceof Stmt.Class && ((Stmt.Class) stmt).binding == null) {
+        definitions.merge(((Stmt.Class) stmt).name.lexeme, 1, Integer::sum);
+      }
+    }
+    definitions.forEach(
+        (name, count) -> {
+          if (count > 1) {
+            known.remove(name);
+          }
+        });
+  }
+
+  private void analyze(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (locals == null) {
+        return;
+      }
+      statement.accept(this);
+    }
+  }
+
+  private int type(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private static int[] copy(int[] state) {
+    return state == null ? null : state.clone();
+  }
+
+  private static int[] join(int[] a, int[] b) {
+    if (a == null) {
+      return copy(b);
+    }
+    if (b == null) {
+      return copy(a);
+    }
+    int[] joined = a.clone();
+    for (int i = 0; i < joined.length; i++) {
+      joined[i] |= b[i];
+    }
+    return joined;
+  }
+
+  private void define(Binding binding, int type) {
+    if (binding != null && binding.kind == Binding.Kind.LOCAL) {
+      locals[binding.index] = type;
+    }
+  }
+
+  private int read(Binding binding) {
+    return binding != null && binding.kind == Binding.Kind.LOCAL ? locals[binding.index] : ANY;
+  }
+
+  private void record(Expr expr, int left, int right) {
+    Integer previous = operands.put(expr, left | right << 8);
+    if (previous == null) {
+      sites.add(expr);
+    } else {
+      operands.put(expr, previous | left | right << 8);
+    }
+  }
+
+  private void analyzeFunction(Stmt.Function declaration, Known info, int receiver) {
+    int[] enclosingLocals = locals;
+    Known enclosingFunction = function;
+    locals = new int[declaration.slots];
+    function = info;
+
+    define(declaration.receiver, receiver);
+    for (int i = 0; i < declaration.parameters.size(); i++) {
+      define(
+          declaration.parameters.get(i),
+          info == null || info.escapes ? ANY : info.parameters[i]);
+    }
+    analyze(declaration.body);
+    if (locals != null && info != null) {
+      returns(NIL);
+    }
+
+    locals = enclosingLocals;
+    function = enclosingFunction;
+  }
+
+  private void returns(int type) {
+    if ((function.returns | type) != function.returns) {
+      function.returns |= type;
+      changed = true;
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    if (stmt.slots == 0) {
+      analyze(stmt.statements);
+      return null;
+    }
+    // Only top-level blocks get a frame of their own, and nothing can return out of them.
+    int[] enclosing = locals;
+    locals = new int[stmt.slots];
+    analyze(stmt.statements);
+    locals = enclosing;
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    if (stmt.superclass != null) {
+      type(stmt.superclass);
+    }
+    define(stmt.binding, CLASS);
+    for (Stmt.Function method : stmt.methods) {
+      analyzeFunction(method, null, INSTANCE);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    type(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    define(stmt.binding, FUNCTION);
+    analyzeFunction(stmt, stmt.binding == null ? known.get(stmt.name.lexeme) : null, ANY);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    type(stmt.condition);
+    int[] before = locals;
+    locals = copy(before);
+    stmt.thenBranch.accept(this);
+    int[] afterThen = locals;
+    locals = copy(before);
+    if (stmt.elseBranch != null) {
+      stmt.elseBranch.accept(this);
+    }
+    locals = join(afterThen, locals);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    type(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    int type = stmt.value == null ? NIL : type(stmt.value);
+    if (function != null) {
+      returns(type);
+    }
+    locals = null;
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    define(stmt.binding, stmt.initializer == null ? NIL : type(stmt.initializer));
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    int[] entry = locals;
+    for (; ; ) {
+      locals = copy(entry);
+      type(stmt.condition);
+      int[] afterCondition = locals;
+      locals = copy(afterCondition);
+      stmt.body.accept(this);
+      int[] next = join(entry, locals);
+      if (Arrays.equals(next, entry)) {
+        // The loop exits when the condition is false.
+        locals = afterCondition;
+        return null;
+      }
+      entry = next;
+    }
+  }
+
+  @Override
+  public Integer visitAssignExpr(Expr.Assign expr) {
+    int type = type(expr.value);
+    if (expr.binding == null && known.remove(expr.name.lexeme) != null) {
+      // Calls to a function that may be replaced can return anything.
+      changed = true;
+    }
+    define(expr.binding, type);
+    return type;
+  }
+
+  @Override
+  public Integer visitBinaryExpr(Expr.Binary expr) {
+    int left = type(expr.left);
+    int right = type(expr.right);
+    switch (expr.operator.type) {
+      case BANG_EQUAL:
+      case EQUAL_EQUAL:
+        return BOOLEAN;
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+        record(expr, left, right);
+        return BOOLEAN;
+      case PLUS:
+        record(expr, left, right);
+        int sum = 0;
+        if ((left & NUMBER) != 0 && (right & NUMBER) != 0) {
+          sum |= NUMBER;
+        }
+        if ((left & STRING) != 0 && (right & STRING) != 0) {
+          sum |= STRING;
+        }
+        return sum;
+      default:
+        record(expr, left, right);
+        return NUMBER;
+    }
+  }
+
+  @Override
+  public Integer visitCallExpr(Expr.Call expr) {
+    // A known function's name read here doesn't let the function escape.
+    Known callee = knownCallee(expr.callee);
+    if (callee == null) {
+      type(expr.callee);
+    }
+    int[] arguments = new int[expr.arguments.size()];
+    for (int i = 0; i < arguments.length; i++) {
+      arguments[i] = type(expr.arguments.get(i));
+    }
+
+    if (callee == null) {
+      return ANY;
+    }
+    if (arguments.length == callee.parameters.length) {
+      for (int i = 0; i < arguments.length; i++) {
+        if ((callee.parameters[i] | arguments[i]) != callee.parameters[i]) {
+          callee.parameters[i] |= arguments[i];
+          changed = true;
+        }
+      }
+    }
+    return callee.returns;
+  }
+
+  private Known knownCallee(Expr callee) {
+    if (callee instanceof Expr.Variable && ((Expr.Variable) callee).binding == null) {
+      return known.get(((Expr.Variable) callee).name.lexeme);
+    }
+    return null;
+  }
+
+  @Override
+  public Integer visitGetExpr(Expr.Get expr) {
+    type(expr.object);
+    return ANY;
+  }
+
+  @Override
+  public Integer visitGroupingExpr(Expr.Grouping expr) {
+    return type(expr.expression);
+  }
+
+  @Override
+  public Integer visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      return NIL;
+    }
+    if (Numbers.isNumber(expr.value)) {
+      return NUMBER;
+    }
+    return expr.value instanceof String ? STRING : BOOLEAN;
+  }
+
+  @Override
+  public Integer visitLogicalExpr(Expr.Logical expr) {
+    int left = type(expr.left);
+    int[] afterLeft = locals;
+    locals = copy(afterLeft);
+    int right = type(expr.right);
+    locals = join(afterLeft, locals);
+    return left | right;
+  }
+
+  @Override
+  public Integer visitSetExpr(Expr.Set expr) {
+    type(expr.object);
+    return type(expr.value);
+  }
+
+  @Override
+  public Integer visitSuperExpr(Expr.Super expr) {
+    return FUNCTION;
+  }
+
+  @Override
+  public Integer visitThisExpr(Expr.This expr) {
+    return INSTANCE;
+  }
+
+  @Override
+  public Integer visitUnaryExpr(Expr.Unary expr) {
+    int right = type(expr.right);
+    if (expr.operator.type == TokenType.BANG) {
+      return BOOLEAN;
+    }
+    record(expr, 0, right);
+    return NUMBER;
+  }
+
+  @Override
+  public Integer visitVariableExpr(Expr.Variable expr) {
+    if (expr.binding == null) {
+      Known function = known.get(expr.name.lexeme);
+      if (function == null) {
+        return ANY;
+      }
+      if (!function.escapes) {
+        function.escapes = true;
+        changed = true;
+      }
+      return FUNCTION;
+    }
+    return read(expr.binding);
+  }
+}
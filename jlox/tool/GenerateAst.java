@@ -16,32 +16,35 @@ public class GenerateAst {
         outputDir,
         "Expr",
         Arrays.asList(
-            "Assign   : Token name, Expr value",
-            "Binary   : Expr left, Token operator, Expr right",
-            "Call     : Expr callee, Token paren, List<Expr> arguments",
+            "Assign   : Token name, Expr value | Binding binding",
+            "Binary   : Expr left, Token operator, Expr right || TypeInference: boolean numeric",
+            "Call     : Expr callee, Token paren, List<Expr> arguments || Inliner: Inlined inlined",
             "Get      : Expr object, Token name",
             "Grouping : Expr expression",
             "Literal  : Object value",
             "Logical  : Expr left, Token operator, Expr right",
             "Set      : Expr object, Token name, Expr value",
-            "Super    : Token keyword, Token method",
-            "This     : Token keyword",
-            "Unary    : Token operator, Expr right",
-            "Variable : Token name"));
+            "Super    : Token keyword, Token method | Binding binding, Binding thisBinding",
+            "This     : Token keyword | Binding binding",
+            "Unary    : Token operator, Expr right || TypeInference: boolean numeric",
+            "Variable : Token name | Binding binding"));
 
     defineAst(
         outputDir,
         "Stmt",
         Arrays.asList(
-            "Block      : List<Stmt> statements",
-            "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+            "Block      : List<Stmt> statements | int slots",
+            "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods"
+                + " | Binding binding, Binding superBinding, int slots",
             "Expression : Expr expression",
-            "Function   : Token name, List<Token> params, List<Stmt> body",
+            "Function   : Token name, List<Token> params, List<Stmt> body"
+                + " | Binding binding, Binding receiver, List<Binding> parameters,"
+                + " List<Binding> upvalues, int slots",
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
             "Print      : Expr expression",
             "Return     : Token keyword, Expr value",
-            "Var        : Token name, Expr initializer",
-            "While      : Expr condition, Stmt body"));
+            "Var        : Token name, Expr initializer | Binding binding",
+            "While      : Expr condition, Stmt body | CountedLoop counted"));
   }
 
   private static void defineAst(String outputDir, String baseName, List<String> types)
@@ -60,10 +63,29 @@ public class GenerateAst {
     // The AST classes.
     for (String type : types) {
       String className = type.split(":")[0].trim();
-      String fields = type.split(":")[1].trim();
+      String fields = type.split(":", 2)[1].trim();
       defineType(writer, baseName, className, fields);
     }
 
+    // Statements remember where they start.
+    if (baseName.equals("Stmt")) {
+      writer.println();
+      writer.println(
+          "  /** Line the statement starts on, relative to its piece of source when that has an"
+              + " origin. */");
+      writer.println("  int line;");
+      writer.println();
+      writer.println(
+          "  /** First coverage probe of this statement, or -1 when coverage has not instrumented"
+              + " it. */");
+      writer.println("  int probe = -1;");
+    } else {
+      writer.println();
+      writer.println(
+          "  /** First coverage probe of this expression's branches, or -1 if it has none. */");
+      writer.println("  int probe = -1;");
+    }
+
     // The base accept() method.
     writer.println();
     writer.println("  abstract <R> R accept(Visitor<R> visitor);");
@@ -72,8 +94,13 @@ public class GenerateAst {
     writer.close();
   }
 
+  // Fields after a '|' are not constructor parameters; the Resolver fills them in later. A '||'
+  // section names a later pass and the fields it fills in.
   private static void defineType(
-      PrintWriter writer, String baseName, String className, String fieldList) {
+      PrintWriter writer, String baseName, String className, String fieldSpec) {
+    String[] passes = fieldSpec.split(" \\|\\| ");
+    fieldSpec = passes[0];
+    String fieldList = fieldSpec.split(" \\| ")[0];
     writer.println("  static class " + className + " extends " + baseName + " {");
 
     // Constructor.
@@ -100,6 +127,21 @@ public class GenerateAst {
     for (String field : fields) {
       writer.println("    final " + field + ";");
     }
+    if (fieldSpec.contains(" | ")) {
+      writer.println();
+      writer.println("    // Filled in by the Resolver.");
+      for (String field : fieldSpec.split(" \\| ")[1].split(", ")) {
+        writer.println("    " + field + ";");
+      }
+    }
+    if (passes.length > 1) {
+      writer.println();
+      String[] pass = passes[1].split(": ", 2);
+      writer.println("    // Filled in by " + pass[0] + ".");
+      for (String field : pass[1].split(", ")) {
+        writer.println("    " + field + ";");
+      }
+    }
 
     writer.println("  }");
   }